@@ -0,0 +1,17 @@
+import cycling.*;
+import java.time.*;
+import java.util.*;
+public class Load {
+  public static void main(String[] a) throws Exception {
+    CyclingPortal p = new CyclingPortal();
+    p.loadCyclingPortal(a[0]);
+    int s1 = p.getRaceStages(p.getRaceIds()[0])[0];
+    System.out.println("segments " + Arrays.toString(p.getStageSegments(s1)));
+    System.out.println("rank " + Arrays.toString(p.getRidersRankInStage(s1)));
+    System.out.println("points " + Arrays.toString(p.getRidersPointsInStage(s1)));
+    System.out.println("mpoints " + Arrays.toString(p.getRidersMountainPointsInStage(s1)));
+    System.out.println("res r0 " + Arrays.toString(p.getRiderResultsInStage(s1, 1)));
+    System.out.println("top at seg " + Arrays.toString(p.getTopRidersAtSegment(p.getStageSegments(s1)[0], 3)));
+    int seg = p.addIntermediateSprintToStage(s1, 10);
+  }
+}
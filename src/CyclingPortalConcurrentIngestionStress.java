@@ -0,0 +1,152 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A stress run of concurrent result registration in a
+ * ConcurrentCyclingPortal. Several threads register results for the same
+ * riders in one stage at the same moment, each thread with its own times. A
+ * stage must let exactly one result per rider in and refuse every other one
+ * with a DuplicatedResultException, so after each round the stage holds one
+ * intact result per rider and the threads have seen (threads - 1) * riders
+ * such exceptions between them.
+ *
+ * @version 1.0
+ */
+public class CyclingPortalConcurrentIngestionStress {
+
+	private static final int CHECKPOINTS = 4;
+	private static final int START_SECOND = 12 * 3600;
+
+	/**
+	 * Stress method.
+	 *
+	 * @param args optionally the number of threads, riders and rounds, 8, 2000
+	 *             and 20 by default
+	 * @throws Exception if the portal can't be filled or a check fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int riders = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		ConcurrentCyclingPortal portal = new ConcurrentCyclingPortal();
+		int teamId = portal.createTeam("Team", "A professional team");
+		int[] riderIds = new int[riders];
+		for (int rider = 0; rider < riders; rider++) {
+			riderIds[rider] = portal.createRider(teamId, "Rider " + rider, 1990);
+		}
+		int raceId = portal.createRace("Race", "A stress race");
+
+		for (int round = 0; round < rounds; round++) {
+			int stageId = portal.addStageToRace(raceId, "Stage" + round, "A road stage", 180,
+					LocalDateTime.of(2023, 7, 1, 12, 0).plusDays(round), StageType.FLAT);
+			portal.addIntermediateSprintToStage(stageId, 60);
+			portal.addIntermediateSprintToStage(stageId, 120);
+			portal.concludeStagePreparation(stageId);
+
+			int duplicates = register(portal, stageId, riderIds, threads);
+			check(portal, stageId, riderIds, threads, duplicates);
+		}
+		System.out.println(rounds + " rounds of " + threads + " threads registering " + riders
+				+ " riders: one result per rider and " + (threads - 1) * riders + " duplicates each round.");
+	}
+
+	// every thread registers every rider, starting together, and the duplicates they see are counted
+	private static int register(ConcurrentCyclingPortal portal, int stageId, int[] riderIds, int threads)
+			throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger duplicates = new AtomicInteger();
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+					// the threads go through the riders from different places so they meet all over the stage
+					for (int i = 0; i < riderIds.length; i++) {
+						int rider = (i + thread * riderIds.length / threads) % riderIds.length;
+						try {
+							portal.registerRiderResultsInStage(stageId, riderIds[rider], checkpoints(thread));
+						} catch (DuplicatedResultException e) {
+							duplicates.incrementAndGet();
+						}
+					}
+				} catch (Exception e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			workers[t].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return duplicates.get();
+	}
+
+	// every thread rides its own pace, one second per leg slower than the thread before it, so a result
+	// made of the times of two threads can be told apart
+	private static LocalTime[] checkpoints(int thread) {
+		LocalTime[] checkpoints = new LocalTime[CHECKPOINTS];
+		for (int checkpoint = 0; checkpoint < CHECKPOINTS; checkpoint++) {
+			checkpoints[checkpoint] = LocalTime.ofSecondOfDay(START_SECOND + checkpoint * leg(thread));
+		}
+		return checkpoints;
+	}
+
+	private static int leg(int thread) {
+		return 3600 + thread;
+	}
+
+	private static void check(ConcurrentCyclingPortal portal, int stageId, int[] riderIds, int threads,
+			int duplicates) throws Exception {
+		int expected = (threads - 1) * riderIds.length;
+		if (duplicates != expected) {
+			throw new IllegalStateException("Expected " + expected + " duplicated results but got " + duplicates
+					+ ".");
+		}
+
+		int[] ranked = portal.getRidersRankInStage(stageId);
+		if (ranked.length != riderIds.length) {
+			throw new IllegalStateException("Expected " + riderIds.length + " results in the stage but got "
+					+ ranked.length + ".");
+		}
+		Set<Integer> seen = new HashSet<>();
+		for (int riderId : ranked) {
+			if (!seen.add(riderId)) {
+				throw new IllegalStateException("Rider " + riderId + " is ranked more than once.");
+			}
+		}
+
+		for (int riderId : riderIds) {
+			if (!seen.contains(riderId)) {
+				throw new IllegalStateException("Rider " + riderId + " has no result.");
+			}
+			// the segment times then the elapsed time, which must all come from the same thread
+			LocalTime[] result = portal.getRiderResultsInStage(stageId, riderId);
+			int thread = result[0].toSecondOfDay() - START_SECOND - leg(0);
+			if (thread < 0 || thread >= threads) {
+				throw new IllegalStateException("Rider " + riderId + " has a result no thread registered.");
+			}
+			for (int checkpoint = 1; checkpoint < CHECKPOINTS - 1; checkpoint++) {
+				if (result[checkpoint - 1].toSecondOfDay() != START_SECOND + checkpoint * leg(thread)) {
+					throw new IllegalStateException("Rider " + riderId + " has a result mixing times of threads.");
+				}
+			}
+			if (result[CHECKPOINTS - 2].toSecondOfDay() != (CHECKPOINTS - 1) * leg(thread)) {
+				throw new IllegalStateException("Rider " + riderId + " has a result mixing times of threads.");
+			}
+		}
+	}
+}
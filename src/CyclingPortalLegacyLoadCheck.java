@@ -0,0 +1,51 @@
+import cycling.*;
+
+import java.util.Arrays;
+
+/**
+ * A check that files saved with object serialization before the compact
+ * format still load as they were. res/legacy-portal.ser was saved by the
+ * earlier CyclingPortal: one race of two stages whose segments were added out
+ * of location order, with eight riders in both. The segment positions, stage
+ * ranks and points it reports after loading are compared with the ones the
+ * earlier CyclingPortal reported for the same file.
+ *
+ * @version 1.0
+ */
+public class CyclingPortalLegacyLoadCheck {
+
+	private static final int[][] SEGMENTS = { { 2, 4, 1, 3 }, { 6, 5 } };
+	private static final int[][] RANKS = { { 5, 6, 1, 8, 7, 4, 2, 3 }, { 2, 8, 7, 4, 3, 1, 6, 5 } };
+	private static final int[][] POINTS = { { 70, 59, 44, 41, 47, 34, 36, 27 }, { 70, 45, 37, 28, 29, 23, 23, 18 } };
+	private static final int[][] MOUNTAIN_POINTS = { { 30, 12, 10, 21, 20, 6, 7, 2 }, { 0, 0, 0, 0, 0, 0, 1, 0 } };
+
+	/**
+	 * Check method.
+	 *
+	 * @param args optionally the file to load, res/legacy-portal.ser by default
+	 * @throws Exception if the file can't be loaded or a check fails
+	 */
+	public static void main(String[] args) throws Exception {
+		String filename = args.length > 0 ? args[0] : "res/legacy-portal.ser";
+
+		CyclingPortal portal = new CyclingPortal();
+		portal.loadCyclingPortal(filename);
+		int[] stageIds = portal.getRaceStages(portal.getRaceIds()[0]);
+		for (int i = 0; i < stageIds.length; i++) {
+			int stageId = stageIds[i];
+			check("segments of stage " + stageId, SEGMENTS[i], portal.getStageSegments(stageId));
+			check("ranks in stage " + stageId, RANKS[i], portal.getRidersRankInStage(stageId));
+			check("points in stage " + stageId, POINTS[i], portal.getRidersPointsInStage(stageId));
+			check("mountain points in stage " + stageId, MOUNTAIN_POINTS[i],
+					portal.getRidersMountainPointsInStage(stageId));
+		}
+		System.out.println(filename + " loaded with the segments, ranks and points it was saved with.");
+	}
+
+	private static void check(String what, int[] expected, int[] actual) {
+		if (!Arrays.equals(expected, actual)) {
+			throw new IllegalStateException("Expected " + what + " to be " + Arrays.toString(expected) + " but got "
+					+ Arrays.toString(actual) + ".");
+		}
+	}
+}
@@ -0,0 +1,115 @@
+import cycling.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Random;
+
+/**
+ * A small benchmark comparing the compact binary format written by
+ * saveCyclingPortal with the Java object serialization written by
+ * saveCyclingPortalSerialized. It fills a portal with a multi-season archive of
+ * grand tours, then times saving and loading it in both formats and prints the
+ * file sizes.
+ *
+ * @version 1.0
+ */
+public class CyclingPortalPersistenceBenchmark {
+
+	private static final int TEAMS = 22;
+	private static final int RIDERS_PER_TEAM = 8;
+	private static final int STAGES_PER_RACE = 21;
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Benchmark method.
+	 *
+	 * @param args optionally the number of races in the archive, 30 by default
+	 * @throws Exception if the portal can't be filled, saved or loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		int races = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+
+		CyclingPortal portal = new CyclingPortal();
+		fill(portal, races);
+		System.out.println("Archive of " + races + " races, " + races * STAGES_PER_RACE + " stages and "
+				+ TEAMS * RIDERS_PER_TEAM + " riders.");
+
+		File compact = File.createTempFile("portal", ".cycp");
+		File serialized = File.createTempFile("portal", ".ser");
+		compact.deleteOnExit();
+		serialized.deleteOnExit();
+
+		// the first round warms the JIT up and isn't counted
+		long compactSave = 0, compactLoad = 0, serializedSave = 0, serializedLoad = 0;
+		for (int round = 0; round <= ROUNDS; round++) {
+			long save = time(() -> portal.saveCyclingPortal(compact.getPath()));
+			long load = time(() -> new CyclingPortal().loadCyclingPortal(compact.getPath()));
+			long saveSerialized = time(() -> portal.saveCyclingPortalSerialized(serialized.getPath()));
+			long loadSerialized = time(() -> new CyclingPortal().loadCyclingPortal(serialized.getPath()));
+			if (round > 0) {
+				compactSave += save;
+				compactLoad += load;
+				serializedSave += saveSerialized;
+				serializedLoad += loadSerialized;
+			}
+		}
+
+		System.out.printf("%-12s %12s %10s %10s%n", "format", "bytes", "save ms", "load ms");
+		System.out.printf("%-12s %12d %10.1f %10.1f%n", "compact", compact.length(), millis(compactSave),
+				millis(compactLoad));
+		System.out.printf("%-12s %12d %10.1f %10.1f%n", "serialized", serialized.length(), millis(serializedSave),
+				millis(serializedLoad));
+	}
+
+	private interface Task {
+		void run() throws IOException, ClassNotFoundException;
+	}
+
+	private static long time(Task task) throws IOException, ClassNotFoundException {
+		long start = System.nanoTime();
+		task.run();
+		return System.nanoTime() - start;
+	}
+
+	private static double millis(long totalNanos) {
+		return totalNanos / (ROUNDS * 1e6);
+	}
+
+	private static void fill(CyclingPortal portal, int races) throws Exception {
+		Random random = new Random(42);
+		int[] riderIds = new int[TEAMS * RIDERS_PER_TEAM];
+		for (int team = 0; team < TEAMS; team++) {
+			int teamId = portal.createTeam("Team" + team, "A professional team");
+			for (int rider = 0; rider < RIDERS_PER_TEAM; rider++) {
+				riderIds[team * RIDERS_PER_TEAM + rider] = portal.createRider(teamId, "Rider " + team + "-" + rider,
+						1980 + random.nextInt(25));
+			}
+		}
+		portal.createAgeCategory("Young", 1998, 2010);
+
+		LocalTime[][] checkpoints = new LocalTime[riderIds.length][];
+		for (int race = 0; race < races; race++) {
+			int raceId = portal.createRace("Race" + race, "A three-week stage race");
+			for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+				int stageId = portal.addStageToRace(raceId, "Stage" + stage, "A road stage", 150 + random.nextInt(80),
+						LocalDateTime.of(2000 + race / 3, 5 + race % 3, 1 + stage, 12, 0), StageType.FLAT);
+				portal.addIntermediateSprintToStage(stageId, 60);
+				portal.addCategorizedClimbToStage(stageId, 120.0, SegmentType.C1, 6.5, 8.0);
+				portal.concludeStagePreparation(stageId);
+
+				for (int rider = 0; rider < riderIds.length; rider++) {
+					int seconds = 12 * 3600;
+					checkpoints[rider] = new LocalTime[4];
+					checkpoints[rider][0] = LocalTime.ofSecondOfDay(seconds);
+					for (int checkpoint = 1; checkpoint < 4; checkpoint++) {
+						seconds += 3000 + random.nextInt(600);
+						checkpoints[rider][checkpoint] = LocalTime.ofSecondOfDay(seconds);
+					}
+				}
+				portal.registerRiderResultsInStage(stageId, riderIds, checkpoints);
+			}
+		}
+	}
+}
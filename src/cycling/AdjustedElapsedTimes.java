@@ -0,0 +1,88 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * works out the adjusted elapsed times of every rider in a stage at once.
+ * the riders are sorted by finish time a single time and then scanned once: a rider
+ * finishing no more than one second after the rider in front joins that rider's group,
+ * and everyone in a group is timed as if they crossed the line with the group's first rider.
+ * time-trials have no adjustments, so there every rider is a group of their own
+ */
+class AdjustedElapsedTimes {
+
+    private final int[] riderIds;
+    private final int[] adjustedSeconds;
+    //index in riderIds where each group starts, plus the total number of riders at the end
+    private final int[] groupStarts;
+    //rider ID to index in riderIds
+    private final IntIntMap positions;
+
+    //riderIds, startSeconds and finishSeconds go together by index, in any order
+    AdjustedElapsedTimes(int[] riderIds, int[] startSeconds, int[] finishSeconds, boolean timeTrial) {
+        int size = riderIds.length;
+
+        // sort finish time and input index packed together, so ties keep their input order
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) finishSeconds[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        this.riderIds = new int[size];
+        this.adjustedSeconds = new int[size];
+        this.positions = IntIntMap.onHeap(size);
+        int[] starts = new int[size + 1];
+        int groups = 0;
+
+        int previousSecond = 0;
+        int groupSecond = 0;
+        for (int i = 0; i < size; i++) {
+            int index = (int) order[i];
+            int second = (int) (order[i] >>> 32);
+            this.riderIds[i] = riderIds[index];
+            positions.put(riderIds[index], i);
+
+            if (i == 0 || timeTrial || second - previousSecond > 1) {
+                groupSecond = second;
+                starts[groups++] = i;
+            }
+            adjustedSeconds[i] = groupSecond - startSeconds[index];
+            previousSecond = second;
+        }
+        starts[groups] = size;
+        this.groupStarts = Arrays.copyOf(starts, groups + 1);
+    }
+
+    //rider IDs in finish order
+    int[] getRiderIds() {
+        return riderIds.clone();
+    }
+
+    //adjusted elapsed seconds, matching getRiderIds
+    int[] getAdjustedSeconds() {
+        return adjustedSeconds.clone();
+    }
+
+    boolean hasRider(int riderId) {
+        return positions.containsKey(riderId);
+    }
+
+    //returns the adjusted elapsed seconds of a rider, who must have a result
+    int getAdjustedSeconds(int riderId) {
+        return adjustedSeconds[positions.get(riderId)];
+    }
+
+    int getGroupCount() {
+        return groupStarts.length - 1;
+    }
+
+    //returns the riders of every finishing group, first group first
+    int[][] getGroups() {
+        int[][] groups = new int[getGroupCount()][];
+        for (int g = 0; g < groups.length; g++) {
+            groups[g] = Arrays.copyOfRange(riderIds, groupStarts[g], groupStarts[g + 1]);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,104 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AgeCategory implements Serializable {
+	/**
+	 * this class is used for age categories, such as young riders or masters, which
+	 * take in every rider born between two years
+	 */
+    private static final long serialVersionUID = 1L;
+
+    private static final AtomicInteger availableId = new AtomicInteger(1);
+
+    private static int nextId() {
+        return availableId.getAndIncrement();
+    }
+
+    static int getAvailableId() {
+        return availableId.get();
+    }
+
+    //used when the portal is erased or loaded
+    static void setAvailableId(int id) {
+        availableId.set(id);
+    }
+
+    private int id;
+    private String name;
+    private int earliestYearOfBirth;
+    private int latestYearOfBirth;
+
+    //IDs of the riders in the category, filled in by the portal and rebuilt after loading
+    private transient BitSet riders = new BitSet();
+
+    public AgeCategory(String name, int earliestYearOfBirth, int latestYearOfBirth) {
+        this(nextId(), name, earliestYearOfBirth, latestYearOfBirth);
+    }
+
+    AgeCategory(int id, String name, int earliestYearOfBirth, int latestYearOfBirth) {
+        this.id = id;
+
+        this.name = name;
+        this.earliestYearOfBirth = earliestYearOfBirth;
+        this.latestYearOfBirth = latestYearOfBirth;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getEarliestYearOfBirth() {
+        return earliestYearOfBirth;
+    }
+
+    public int getLatestYearOfBirth() {
+        return latestYearOfBirth;
+    }
+
+    //true if a rider born in the given year belongs in the category
+    public boolean covers(int yearOfBirth) {
+        return yearOfBirth >= earliestYearOfBirth && yearOfBirth <= latestYearOfBirth;
+    }
+
+    //adds a rider if they were born in the category's years
+    void addIfCovered(Rider rider) {
+        if (covers(rider.getYearOfBirth())) {
+            riders.set(rider.getId());
+        }
+    }
+
+    void remove(int riderId) {
+        riders.clear(riderId);
+    }
+
+    void clear() {
+        riders.clear();
+    }
+
+    //returns the positions in a ranking that hold riders of the category, in one pass and keeping the ranking's order
+    int[] positionsIn(int[] rankedIds) {
+        int[] positions = new int[rankedIds.length];
+        int count = 0;
+        for (int i = 0; i < rankedIds.length; i++) {
+            if (riders.get(rankedIds[i])) {
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        riders = new BitSet();
+    }
+}
@@ -0,0 +1,227 @@
+package cycling;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * keeps the classifications of a race up to date.
+ * every stage's adjusted elapsed times, points and mountain points are remembered, so
+ * when a stage changes only the riders whose numbers in that stage changed are moved in
+ * the orderings, and stages that did not change are not looked at again.
+ * all the classifications come out of the same pass and are handed out together.
+ * the orderings are order statistic trees, so a rider's position, the rider at a
+ * position and the gap to the leader are found in O(log n) without building the arrays
+ */
+class ClassificationEngine {
+
+    private static final int SECONDS = 0;
+    private static final int POINTS = 1;
+    private static final int MOUNTAIN_POINTS = 2;
+    private static final int STAGES = 3;
+
+    //adjusted elapsed seconds, points and mountain points per rider, as last taken from each stage
+    private final Map<Stage, Map<Integer, int[]>> stageValues = new IdentityHashMap<>();
+    private final Map<Stage, Long> stageVersions = new IdentityHashMap<>();
+
+    //sums of the stage values and number of stages counted, per rider
+    private final Map<Integer, int[]> totals = new HashMap<>();
+    //riders ordered by total time, by most points and by most mountain points, ties broken by ID
+    private final OrderStatisticTree generalOrdering = new OrderStatisticTree();
+    private final OrderStatisticTree pointsOrdering = new OrderStatisticTree();
+    private final OrderStatisticTree mountainOrdering = new OrderStatisticTree();
+
+    private RaceClassification classification;
+
+    //brings the classifications up to date with the stages of the race
+    void update(List<Stage> stages) {
+        for (Stage stage : stages) {
+            Long version = stageVersions.get(stage);
+            if (version == null || version != stage.getResultsVersion()) {
+                applyStage(stage);
+            }
+        }
+    }
+
+    //takes away everything a stage contributed, used when the stage is removed from the race
+    void removeStage(Stage stage) {
+        Map<Integer, int[]> previous = stageValues.remove(stage);
+        stageVersions.remove(stage);
+        if (previous == null) {
+            return;
+        }
+        for (Map.Entry<Integer, int[]> entry : previous.entrySet()) {
+            int[] values = entry.getValue();
+            changeTotals(entry.getKey(), -values[SECONDS], -values[POINTS], -values[MOUNTAIN_POINTS], -1);
+        }
+    }
+
+    RaceClassification getClassification() {
+        if (classification == null) {
+            classification = buildClassification();
+        }
+        return classification;
+    }
+
+    //returns a rider's position in a classification counting from 0, or -1 if the rider isn't in it
+    int getPosition(ClassificationType type, int riderId) {
+        int[] total = totals.get(riderId);
+        if (total == null) {
+            return -1;
+        }
+        return ordering(type).rank(key(type, total, riderId));
+    }
+
+    //returns the rider at a position in a classification counting from 0, or -1 if there is nobody there
+    int getRiderAt(ClassificationType type, int position) {
+        OrderStatisticTree ordering = ordering(type);
+        if (position < 0 || position >= ordering.size()) {
+            return -1;
+        }
+        return (int) ordering.get(position);
+    }
+
+    //returns how many seconds a rider is behind the general classification leader, or -1 if the rider isn't in it
+    int getSecondsBehindLeader(int riderId) {
+        int[] total = totals.get(riderId);
+        if (total == null) {
+            return -1;
+        }
+        int leaderSeconds = (int) (generalOrdering.get(0) >> 32);
+        return total[SECONDS] - leaderSeconds;
+    }
+
+    private void applyStage(Stage stage) {
+        // everything is read from one snapshot, so the numbers all belong to the same results
+        StageRankings rankings = stage.getRankings();
+        Map<Integer, int[]> current = new HashMap<>();
+        int[] finishOrderIds = rankings.getFinishOrderIds();
+        int[] adjustedElapsedSeconds = rankings.getAdjustedElapsedSeconds();
+        int[] mountainPoints = rankings.getRiderMountainPoints();
+        for (int i = 0; i < finishOrderIds.length; i++) {
+            current.put(finishOrderIds[i], new int[]{adjustedElapsedSeconds[i], 0, mountainPoints[i]});
+        }
+        int[] rankedIds = rankings.getRankedIds();
+        int[] points = rankings.getRiderPoints();
+        for (int i = 0; i < rankedIds.length; i++) {
+            current.get(rankedIds[i])[POINTS] = points[i];
+        }
+
+        Map<Integer, int[]> previous = stageValues.get(stage);
+        for (Map.Entry<Integer, int[]> entry : current.entrySet()) {
+            int riderId = entry.getKey();
+            int[] now = entry.getValue();
+            int[] before = previous == null ? null : previous.remove(riderId);
+            if (before == null) {
+                changeTotals(riderId, now[SECONDS], now[POINTS], now[MOUNTAIN_POINTS], 1);
+            } else if (before[SECONDS] != now[SECONDS] || before[POINTS] != now[POINTS]
+                    || before[MOUNTAIN_POINTS] != now[MOUNTAIN_POINTS]) {
+                changeTotals(riderId, now[SECONDS] - before[SECONDS], now[POINTS] - before[POINTS],
+                        now[MOUNTAIN_POINTS] - before[MOUNTAIN_POINTS], 0);
+            }
+        }
+        // whatever is left over are results that have been deleted since
+        if (previous != null) {
+            for (Map.Entry<Integer, int[]> entry : previous.entrySet()) {
+                int[] values = entry.getValue();
+                changeTotals(entry.getKey(), -values[SECONDS], -values[POINTS], -values[MOUNTAIN_POINTS], -1);
+            }
+        }
+
+        stageValues.put(stage, current);
+        stageVersions.put(stage, rankings.getVersion());
+    }
+
+    //the results version of a stage the classifications were last brought up to date with
+    long getVersion(Stage stage) {
+        Long version = stageVersions.get(stage);
+        return version == null ? -1 : version;
+    }
+
+    private void changeTotals(int riderId, int deltaSeconds, int deltaPoints, int deltaMountainPoints, int deltaStages) {
+        int[] total = totals.get(riderId);
+        if (total == null) {
+            total = new int[4];
+            totals.put(riderId, total);
+        } else {
+            generalOrdering.remove(ascendingKey(total[SECONDS], riderId));
+            pointsOrdering.remove(descendingKey(total[POINTS], riderId));
+            mountainOrdering.remove(descendingKey(total[MOUNTAIN_POINTS], riderId));
+        }
+        total[SECONDS] += deltaSeconds;
+        total[POINTS] += deltaPoints;
+        total[MOUNTAIN_POINTS] += deltaMountainPoints;
+        total[STAGES] += deltaStages;
+
+        if (total[STAGES] == 0) {
+            totals.remove(riderId);
+        } else {
+            generalOrdering.add(ascendingKey(total[SECONDS], riderId));
+            pointsOrdering.add(descendingKey(total[POINTS], riderId));
+            mountainOrdering.add(descendingKey(total[MOUNTAIN_POINTS], riderId));
+        }
+        classification = null;
+    }
+
+    private RaceClassification buildClassification() {
+        int size = generalOrdering.size();
+        int[] generalIds = new int[size];
+        int[] generalSeconds = new int[size];
+        int[] points = new int[size];
+        int[] mountainPoints = new int[size];
+        long[] keys = generalOrdering.toArray();
+        for (int i = 0; i < size; i++) {
+            int riderId = (int) keys[i];
+            int[] total = totals.get(riderId);
+            generalIds[i] = riderId;
+            generalSeconds[i] = total[SECONDS];
+            points[i] = total[POINTS];
+            mountainPoints[i] = total[MOUNTAIN_POINTS];
+        }
+        return new RaceClassification(generalIds, generalSeconds, points, mountainPoints,
+                idsOf(pointsOrdering), idsOf(mountainOrdering));
+    }
+
+    private static int[] idsOf(OrderStatisticTree ordering) {
+        long[] keys = ordering.toArray();
+        int[] ids = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ids[i] = (int) keys[i];
+        }
+        return ids;
+    }
+
+    private OrderStatisticTree ordering(ClassificationType type) {
+        switch (type) {
+            case POINTS:
+                return pointsOrdering;
+            case MOUNTAIN:
+                return mountainOrdering;
+            default:
+                return generalOrdering;
+        }
+    }
+
+    //the key a rider has in the ordering of a classification
+    private static long key(ClassificationType type, int[] total, int riderId) {
+        switch (type) {
+            case POINTS:
+                return descendingKey(total[POINTS], riderId);
+            case MOUNTAIN:
+                return descendingKey(total[MOUNTAIN_POINTS], riderId);
+            default:
+                return ascendingKey(total[SECONDS], riderId);
+        }
+    }
+
+    //packs a value and rider ID so that smaller values come first
+    private static long ascendingKey(int value, int riderId) {
+        return ((long) value << 32) | (riderId & 0xFFFFFFFFL);
+    }
+
+    //packs a value and rider ID so that bigger values come first
+    private static long descendingKey(int value, int riderId) {
+        return ((long) -value << 32) | (riderId & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,23 @@
+package cycling;
+
+/**
+ * This enum is used to pick one of the classifications of a race.
+ */
+public enum ClassificationType {
+
+	/**
+	 * The general classification, by least total adjusted elapsed time.
+	 */
+	GENERAL,
+
+	/**
+	 * The points classification, by most total points.
+	 */
+	POINTS,
+
+	/**
+	 * The mountain classification, by most total mountain points.
+	 */
+	MOUNTAIN;
+
+}
@@ -0,0 +1,436 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the portal's own save format, written instead of object serialization because it is
+ * half the size and quicker to write and read. a file is:
+ * <ul>
+ * <li>the magic bytes "CYCP" and the format version;</li>
+ * <li>the next free ID of races, riders, segments, stages, teams and age categories;</li>
+ * <li>a table of every distinct string, so a name or stage state is stored once and
+ * referred to by its place in the table, 0 standing for null;</li>
+ * <li>the races with their stages, segments and results, the teams with their riders,
+ * and the age categories.</li>
+ * </ul>
+ * whole numbers are varints, zigzagged where they can be negative, and doubles take 8
+ * bytes. stage results are written column by column: rider IDs, start seconds of the
+ * day, then the seconds from the start to every segment and the finish, so most of them
+ * fit in two or three bytes. riders still out on a stage are written checkpoint by
+ * checkpoint, as the second of the day plus one or 0 for a mat not crossed yet.
+ * a file is read through one small buffer, and the result columns go into the stages'
+ * stores as they are read
+ */
+final class CompactPortalFormat {
+
+    //"CYCP"
+    static final int MAGIC = 0x43594350;
+    static final int VERSION = 1;
+
+    private static final int HAS_START_TIME = 1;
+    private static final int OFF_HEAP_RESULTS = 2;
+
+    private CompactPortalFormat() {
+    }
+
+    //true if the file starts with the magic bytes, read without moving the channel's position
+    static boolean isCompact(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+            // keeps reading until the four bytes are in or the file ends
+        }
+        return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+    }
+
+    static void write(DataToSerializeDeserialize data, WritableByteChannel channel) throws IOException {
+        Encoder body = new Encoder();
+        body.putVarint(data.raceList.size());
+        for (Race race : data.raceList) {
+            writeRace(body, race);
+        }
+        body.putVarint(data.teamList.size());
+        for (Team team : data.teamList) {
+            body.putVarint(team.getId());
+            body.putString(team.getName());
+            body.putString(team.getDescription());
+            body.putVarint(team.getRiderList().size());
+            for (Rider rider : team.getRiderList()) {
+                body.putVarint(rider.getId());
+                body.putString(rider.getName());
+                body.putSignedVarint(rider.getYearOfBirth());
+            }
+        }
+        body.putVarint(data.ageCategoryList.size());
+        for (AgeCategory category : data.ageCategoryList) {
+            body.putVarint(category.getId());
+            body.putString(category.getName());
+            body.putSignedVarint(category.getEarliestYearOfBirth());
+            body.putSignedVarint(category.getLatestYearOfBirth());
+        }
+
+        // the string table goes before the body, so it can only be written once the body is done
+        Encoder header = new Encoder();
+        header.buffer.putInt(MAGIC);
+        header.putVarint(VERSION);
+        header.putVarint(data.availableRaceId);
+        header.putVarint(data.availableRiderId);
+        header.putVarint(data.availableSegmentId);
+        header.putVarint(data.availableStageId);
+        header.putVarint(data.availableTeamId);
+        header.putVarint(data.availableAgeCategoryId);
+        header.putVarint(body.strings.size());
+        for (String string : body.strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            header.putVarint(bytes.length);
+            header.ensure(bytes.length);
+            header.buffer.put(bytes);
+        }
+
+        OffHeapStageResultStore.writeFully(channel, header.buffer.flip());
+        OffHeapStageResultStore.writeFully(channel, body.buffer.flip());
+    }
+
+    //reads a whole file written by write, a buffer at a time
+    static DataToSerializeDeserialize read(ReadableByteChannel channel) throws IOException {
+        try {
+            return read(new Decoder(channel));
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException | DateTimeException
+                | DuplicatedResultException e) {
+            throw new IOException("the cycling portal file is damaged.", e);
+        }
+    }
+
+    private static void writeRace(Encoder out, Race race) {
+        out.putVarint(race.getId());
+        out.putString(race.getName());
+        out.putString(race.getDescription());
+        List<Stage> stages = race.getStageList();
+        out.putVarint(stages.size());
+        for (Stage stage : stages) {
+            writeStage(out, stage);
+        }
+    }
+
+    private static void writeStage(Encoder out, Stage stage) {
+        out.putVarint(stage.getId());
+        out.putString(stage.getStageName());
+        out.putString(stage.getDescription());
+        out.putDouble(stage.getLength());
+        LocalDateTime startTime = stage.getStartTime();
+        out.putVarint((startTime != null ? HAS_START_TIME : 0) | (stage.hasOffHeapResults() ? OFF_HEAP_RESULTS : 0));
+        if (startTime != null) {
+            out.putSignedVarlong(startTime.toEpochSecond(ZoneOffset.UTC));
+            out.putVarint(startTime.getNano());
+        }
+        out.putVarint(stage.getStageType() == null ? 0 : stage.getStageType().ordinal() + 1);
+        out.putString(stage.getStageState());
+
+        List<Segment> segments = stage.getSegmentList();
+        out.putVarint(segments.size());
+        for (Segment segment : segments) {
+            out.putVarint(segment.getId());
+            out.putVarint(segment.getSegmentType() == null ? 0 : segment.getSegmentType().ordinal() + 1);
+            out.putDouble(segment.getLocation());
+            out.putDouble(segment.getAverageGradient());
+            out.putDouble(segment.getLength());
+        }
+
+        int[][] columns = stage.getResultColumns();
+        out.putVarint(columns[0].length);
+        for (int[] column : columns) {
+            for (int value : column) {
+                out.putVarint(value);
+            }
+        }
+
+        int[] partialIds = stage.getPartialResultIds();
+        out.putVarint(partialIds.length);
+        for (int riderId : partialIds) {
+            out.putVarint(riderId);
+            for (LocalTime checkpoint : stage.getPartialResult(riderId)) {
+                out.putVarint(checkpoint == null ? 0 : checkpoint.toSecondOfDay() + 1);
+            }
+        }
+    }
+
+    private static DataToSerializeDeserialize read(Decoder in) throws IOException, DuplicatedResultException {
+        if (in.getInt() != MAGIC) {
+            throw new IOException("not a cycling portal file.");
+        }
+        int version = in.getVarint();
+        if (version != VERSION) {
+            throw new IOException("cycling portal file version " + version + " can't be read, only version " + VERSION + ".");
+        }
+        DataToSerializeDeserialize data = new DataToSerializeDeserialize();
+        data.availableRaceId = in.getVarint();
+        data.availableRiderId = in.getVarint();
+        data.availableSegmentId = in.getVarint();
+        data.availableStageId = in.getVarint();
+        data.availableTeamId = in.getVarint();
+        data.availableAgeCategoryId = in.getVarint();
+        String[] strings = new String[in.getVarint()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[in.getVarint()];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.strings = strings;
+
+        data.raceList = new ArrayList<>();
+        int raceCount = in.getVarint();
+        for (int i = 0; i < raceCount; i++) {
+            data.raceList.add(readRace(in));
+        }
+
+        data.teamList = new ArrayList<>();
+        int teamCount = in.getVarint();
+        for (int i = 0; i < teamCount; i++) {
+            Team team = new Team(in.getVarint(), in.getString(), in.getString());
+            int riderCount = in.getVarint();
+            for (int j = 0; j < riderCount; j++) {
+                team.add(new Rider(in.getVarint(), in.getString(), in.getSignedVarint()));
+            }
+            data.teamList.add(team);
+        }
+
+        data.ageCategoryList = new ArrayList<>();
+        int categoryCount = in.getVarint();
+        for (int i = 0; i < categoryCount; i++) {
+            data.ageCategoryList.add(new AgeCategory(in.getVarint(), in.getString(), in.getSignedVarint(),
+                    in.getSignedVarint()));
+        }
+        return data;
+    }
+
+    private static Race readRace(Decoder in) throws IOException, DuplicatedResultException {
+        Race race = new Race(in.getVarint(), in.getString(), in.getString());
+        int stageCount = in.getVarint();
+        for (int i = 0; i < stageCount; i++) {
+            race.add(readStage(in));
+        }
+        return race;
+    }
+
+    private static Stage readStage(Decoder in) throws IOException, DuplicatedResultException {
+        int id = in.getVarint();
+        String name = in.getString();
+        String description = in.getString();
+        double length = in.getDouble();
+        int flags = in.getVarint();
+        LocalDateTime startTime = null;
+        if ((flags & HAS_START_TIME) != 0) {
+            startTime = LocalDateTime.ofEpochSecond(in.getSignedVarlong(), in.getVarint(), ZoneOffset.UTC);
+        }
+        int type = in.getVarint();
+        Stage stage = new Stage(id, name, description, length, startTime, type == 0 ? null : StageType.values()[type - 1]);
+        stage.setStageState(in.getString());
+
+        int segmentCount = in.getVarint();
+        for (int i = 0; i < segmentCount; i++) {
+            int segmentId = in.getVarint();
+            int segmentType = in.getVarint();
+            stage.add(new Segment(segmentId, in.getDouble(), segmentType == 0 ? null : SegmentType.values()[segmentType - 1],
+                    in.getDouble(), in.getDouble()));
+        }
+
+        if ((flags & OFF_HEAP_RESULTS) != 0) {
+            stage.useOffHeapResults();
+        }
+        // the columns go into the stage's store as they are, without making a LocalTime per checkpoint
+        int rows = in.getVarint();
+        int[] riderIds = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            riderIds[row] = in.getVarint();
+        }
+        int[] startSeconds = in.getSecondsColumn(rows);
+        int[][] checkpointSeconds = new int[segmentCount + 1][];
+        for (int checkpoint = 0; checkpoint < checkpointSeconds.length; checkpoint++) {
+            checkpointSeconds[checkpoint] = in.getSecondsColumn(rows);
+        }
+        if (stage.addResultColumns(riderIds, startSeconds, checkpointSeconds) >= 0) {
+            throw new IOException("stage " + id + " has two results for the same rider.");
+        }
+
+        int partialCount = in.getVarint();
+        for (int i = 0; i < partialCount; i++) {
+            int riderId = in.getVarint();
+            for (int checkpoint = 0; checkpoint < segmentCount + 2; checkpoint++) {
+                int secondOfDay = in.getVarint();
+                if (secondOfDay > 0) {
+                    stage.recordCheckpoint(id, riderId, checkpoint, LocalTime.ofSecondOfDay(secondOfDay - 1));
+                }
+            }
+        }
+        return stage;
+    }
+
+    //writes into a heap buffer that grows as needed, and collects the strings for the table
+    private static final class Encoder {
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                bigger.put(buffer.flip());
+                buffer = bigger;
+            }
+        }
+
+        void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putVarlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putSignedVarint(int value) {
+            putVarint((value << 1) ^ (value >> 31));
+        }
+
+        void putSignedVarlong(long value) {
+            putVarlong((value << 1) ^ (value >> 63));
+        }
+
+        void putDouble(double value) {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putVarint(0);
+                return;
+            }
+            Integer reference = strings.get(value);
+            if (reference == null) {
+                reference = strings.size() + 1;
+                strings.put(value, reference);
+            }
+            putVarint(reference);
+        }
+    }
+
+    //reads from a channel through one small buffer, filled again as it runs out
+    private static final class Decoder {
+        private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private String[] strings;
+
+        Decoder(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        //makes sure the next bytes are in the buffer, reading more of the file if they aren't
+        private void need(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            try {
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("the cycling portal file ends too early.");
+                    }
+                }
+            } finally {
+                buffer.flip();
+            }
+        }
+
+        int getInt() throws IOException {
+            need(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        void get(byte[] bytes) throws IOException {
+            // a string can be longer than the buffer, so it is copied out a buffer at a time
+            for (int done = 0; done < bytes.length; ) {
+                need(1);
+                int count = Math.min(buffer.remaining(), bytes.length - done);
+                buffer.get(bytes, done, count);
+                done += count;
+            }
+        }
+
+        int getVarint() throws IOException {
+            long value = getVarlong();
+            if (value >>> 32 != 0) {
+                throw new IOException("the cycling portal file is damaged.");
+            }
+            return (int) value;
+        }
+
+        long getVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                need(1);
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("the cycling portal file is damaged.");
+        }
+
+        int getSignedVarint() throws IOException {
+            int value = getVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long getSignedVarlong() throws IOException {
+            long value = getVarlong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        //reads a column of start seconds or seconds from the start, none of which can be a day or more
+        int[] getSecondsColumn(int rows) throws IOException {
+            int[] column = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                column[row] = getVarint();
+                if (column[row] >= SECONDS_PER_DAY) {
+                    throw new IOException("the cycling portal file is damaged.");
+                }
+            }
+            return column;
+        }
+
+        double getDouble() throws IOException {
+            need(Double.BYTES);
+            return buffer.getDouble();
+        }
+
+        String getString() throws IOException {
+            int reference = getVarint();
+            return reference == 0 ? null : strings[reference - 1];
+        }
+    }
+}
@@ -0,0 +1,699 @@
+package cycling;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ConcurrentCyclingPortal is a CyclingPortalInterface that can be used by many
+ * threads at once. It keeps a {@link CyclingPortal} and guards it with two levels
+ * of locks:
+ * <ul>
+ * <li>a registry lock, taken exclusively by anything that creates or removes races,
+ * stages, segments, teams or riders, and shared by everything else;</li>
+ * <li>a lock per race stripe, taken exclusively while results of a stage of the race
+ * are deleted or the stage is concluded.</li>
+ * </ul>
+ * Stage and race ranking queries share both locks. Registering results only shares the
+ * stripe lock too: a stage takes results from many threads at once and lets exactly one
+ * result per rider in on its own, and the rankings it and its race hand out are immutable
+ * snapshots. Results of different races therefore go in side by side, and standings of a
+ * race can be read while results of the same race or another one are coming in.
+ */
+public class ConcurrentCyclingPortal implements CyclingPortalInterface {
+
+    private static final long serialVersionUID = 1L;
+
+    //number of race stripes, a power of two so a race ID is turned into a stripe with a mask
+    private static final int STRIPES = 64;
+
+    private final CyclingPortal portal = new CyclingPortal();
+    private final StampedLock registry = new StampedLock();
+    private final StampedLock[] raceStripes = new StampedLock[STRIPES];
+
+    public ConcurrentCyclingPortal() {
+        for (int i = 0; i < STRIPES; i++) {
+            raceStripes[i] = new StampedLock();
+        }
+    }
+
+    public int[] getRaceIds() {
+        long stamp = registry.readLock();
+        try {
+            return portal.getRaceIds();
+        } finally {
+            registry.unlockRead(stamp);
+        }
+    }
+
+    public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
+        long stamp = registry.writeLock();
+        try {
+            return portal.createRace(name, description);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.viewRaceDetails(raceId));
+    }
+
+    public void removeRaceById(int raceId) throws IDNotRecognisedException {
+        long stamp = registry.writeLock();
+        try {
+            portal.removeRaceById(raceId);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getNumberOfStages(raceId));
+    }
+
+    public int addStageToRace(int raceId, String stageName, String description, double length, LocalDateTime startTime,
+                              StageType type)
+            throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
+        long stamp = registry.writeLock();
+        try {
+            return portal.addStageToRace(raceId, stageName, description, length, startTime, type);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getRaceStages(raceId));
+    }
+
+    public double getStageLength(int stageId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getStageLength(stageId));
+    }
+
+    public void removeStageById(int stageId) throws IDNotRecognisedException {
+        long stamp = registry.writeLock();
+        try {
+            portal.removeStageById(stageId);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public int addCategorizedClimbToStage(int stageId, Double location, SegmentType type, Double averageGradient,
+                                          Double length) throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+            InvalidStageTypeException {
+        long stamp = registry.writeLock();
+        try {
+            return portal.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public int addIntermediateSprintToStage(int stageId, double location) throws IDNotRecognisedException,
+            InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
+        long stamp = registry.writeLock();
+        try {
+            return portal.addIntermediateSprintToStage(stageId, location);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void removeSegment(int segmentId) throws IDNotRecognisedException, InvalidStageStateException {
+        long stamp = registry.writeLock();
+        try {
+            portal.removeSegment(segmentId);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
+        long registryStamp = registry.readLock();
+        try {
+            StampedLock stripe = stageStripe(stageId);
+            long stamp = stripe.writeLock();
+            try {
+                portal.concludeStagePreparation(stageId);
+            } finally {
+                stripe.unlockWrite(stamp);
+            }
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    public int[] getStageSegments(int stageId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getStageSegments(stageId));
+    }
+
+    public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
+        long stamp = registry.writeLock();
+        try {
+            return portal.createTeam(name, description);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void removeTeam(int teamId) throws IDNotRecognisedException {
+        long stamp = registry.writeLock();
+        try {
+            portal.removeTeam(teamId);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public int[] getTeams() {
+        long stamp = registry.readLock();
+        try {
+            return portal.getTeams();
+        } finally {
+            registry.unlockRead(stamp);
+        }
+    }
+
+    public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getTeamRiders(teamId));
+    }
+
+    public int createRider(int teamID, String name, int yearOfBirth) throws
+            IDNotRecognisedException, IllegalArgumentException {
+        long stamp = registry.writeLock();
+        try {
+            return portal.createRider(teamID, name, yearOfBirth);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void removeRider(int riderId) throws IDNotRecognisedException {
+        // the rider's results can be in any race, so every race has to be held still
+        long stamp = registry.writeLock();
+        try {
+            portal.removeRider(riderId);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException,
+            InvalidStageStateException {
+        long registryStamp = registry.readLock();
+        try {
+            // shared, so timing feeds for the same stage don't wait for each other
+            StampedLock stripe = stageStripe(stageId);
+            long stamp = stripe.readLock();
+            try {
+                portal.registerRiderResultsInStage(stageId, riderId, checkpoints);
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#registerRiderResultsInStage(int, int[], LocalTime[][])}.
+     */
+    public void registerRiderResultsInStage(int stageId, int[] riderIds, LocalTime[][] checkpoints)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException,
+            InvalidStageStateException {
+        long registryStamp = registry.readLock();
+        try {
+            StampedLock stripe = stageStripe(stageId);
+            long stamp = stripe.readLock();
+            try {
+                portal.registerRiderResultsInStage(stageId, riderIds, checkpoints);
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#registerRiderCheckpointInStage(int, int, int, LocalTime)}.
+     */
+    public boolean registerRiderCheckpointInStage(int stageId, int riderId, int checkpointIndex, LocalTime time)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException,
+            InvalidStageStateException {
+        long registryStamp = registry.readLock();
+        try {
+            StampedLock stripe = stageStripe(stageId);
+            long stamp = stripe.readLock();
+            try {
+                return portal.registerRiderCheckpointInStage(stageId, riderId, checkpointIndex, time);
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#getProvisionalRanksAtCheckpointInStage(int, int)}.
+     */
+    public int[] getProvisionalRanksAtCheckpointInStage(int stageId, int checkpointIndex)
+            throws IDNotRecognisedException, InvalidCheckpointsException {
+        long registryStamp = registry.readLock();
+        try {
+            return portal.getProvisionalRanksAtCheckpointInStage(stageId, checkpointIndex);
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#getProvisionalElapsedTimesAtCheckpointInStage(int, int)}.
+     */
+    public LocalTime[] getProvisionalElapsedTimesAtCheckpointInStage(int stageId, int checkpointIndex)
+            throws IDNotRecognisedException, InvalidCheckpointsException {
+        long registryStamp = registry.readLock();
+        try {
+            return portal.getProvisionalElapsedTimesAtCheckpointInStage(stageId, checkpointIndex);
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#getTopRidersAtSegment(int, int)}.
+     */
+    public int[] getTopRidersAtSegment(int segmentId, int n) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getTopRidersAtSegment(segmentId, n));
+    }
+
+    /**
+     * See {@link CyclingPortal#getLeaderAtSegment(int)}.
+     */
+    public int getLeaderAtSegment(int segmentId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getLeaderAtSegment(segmentId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRiderPositionAtSegment(int, int)}.
+     */
+    public int getRiderPositionAtSegment(int segmentId, int riderId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getRiderPositionAtSegment(segmentId, riderId));
+    }
+
+    public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRiderResultsInStage(stageId, riderId));
+    }
+
+    public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId));
+    }
+
+    public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+        long registryStamp = registry.readLock();
+        try {
+            StampedLock stripe = stageStripe(stageId);
+            long stamp = stripe.writeLock();
+            try {
+                portal.deleteRiderResultsInStage(stageId, riderId);
+            } finally {
+                stripe.unlockWrite(stamp);
+            }
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRidersRankInStage(stageId));
+    }
+
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRankedAdjustedElapsedTimesInStage(stageId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRidersRankInStage(int, int, int)}.
+     */
+    public int[] getRidersRankInStage(int stageId, int offset, int limit) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRidersRankInStage(stageId, offset, limit));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRankedAdjustedElapsedTimesInStage(int, int, int)}.
+     */
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId, int offset, int limit)
+            throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRankedAdjustedElapsedTimesInStage(stageId, offset, limit));
+    }
+
+    /**
+     * See {@link CyclingPortal#getFinishingGroupsInStage(int)}.
+     */
+    public int[][] getFinishingGroupsInStage(int stageId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getFinishingGroupsInStage(stageId));
+    }
+
+    public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRidersPointsInStage(stageId));
+    }
+
+    public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getRidersMountainPointsInStage(stageId));
+    }
+
+    /**
+     * See {@link CyclingPortal#useOffHeapResultsInStage(int)}.
+     */
+    public void useOffHeapResultsInStage(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
+        long registryStamp = registry.readLock();
+        try {
+            StampedLock stripe = stageStripe(stageId);
+            long stamp = stripe.writeLock();
+            try {
+                portal.useOffHeapResultsInStage(stageId);
+            } finally {
+                stripe.unlockWrite(stamp);
+            }
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#saveStageResults(int, String)}.
+     */
+    public void saveStageResults(int stageId, String filename) throws IDNotRecognisedException, IOException {
+        long registryStamp = registry.readLock();
+        try {
+            StampedLock stripe = stageStripe(stageId);
+            long stamp = stripe.readLock();
+            try {
+                portal.saveStageResults(stageId, filename);
+            } finally {
+                stripe.unlockRead(stamp);
+            }
+        } finally {
+            registry.unlockRead(registryStamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#getStageRankingPublisher(int)}.
+     */
+    public Flow.Publisher<RankingUpdate> getStageRankingPublisher(int stageId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getStageRankingPublisher(stageId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRaceRankingPublisher(int)}.
+     */
+    public Flow.Publisher<RankingUpdate> getRaceRankingPublisher(int raceId) throws IDNotRecognisedException {
+        return readRegistry(() -> portal.getRaceRankingPublisher(raceId));
+    }
+
+    public void eraseCyclingPortal() {
+        long stamp = registry.writeLock();
+        try {
+            portal.eraseCyclingPortal();
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void saveCyclingPortal(String filename) throws IOException {
+        // nothing can change while the whole portal is written out
+        long stamp = registry.writeLock();
+        try {
+            portal.saveCyclingPortal(filename);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#saveCyclingPortalSerialized(String)}.
+     */
+    public void saveCyclingPortalSerialized(String filename) throws IOException {
+        long stamp = registry.writeLock();
+        try {
+            portal.saveCyclingPortalSerialized(filename);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+        long stamp = registry.writeLock();
+        try {
+            portal.loadCyclingPortal(filename);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public void removeRaceByName(String name) throws NameNotRecognisedException {
+        long stamp = registry.writeLock();
+        try {
+            portal.removeRaceByName(name);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    public LocalTime[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getGeneralClassificationTimesInRace(raceId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getGeneralClassificationDurationsInRace(int)}.
+     */
+    public Duration[] getGeneralClassificationDurationsInRace(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getGeneralClassificationDurationsInRace(raceId));
+    }
+
+    public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersPointsInRace(raceId));
+    }
+
+    public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersMountainPointsInRace(raceId));
+    }
+
+    public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersGeneralClassificationRank(raceId));
+    }
+
+    public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersPointClassificationRank(raceId));
+    }
+
+    public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersMountainPointClassificationRank(raceId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRidersGeneralClassificationRank(int, int, int)}.
+     */
+    public int[] getRidersGeneralClassificationRank(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersGeneralClassificationRank(raceId, offset, limit));
+    }
+
+    /**
+     * See {@link CyclingPortal#getGeneralClassificationTimesInRace(int, int, int)}.
+     */
+    public LocalTime[] getGeneralClassificationTimesInRace(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getGeneralClassificationTimesInRace(raceId, offset, limit));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRidersPointClassificationRank(int, int, int)}.
+     */
+    public int[] getRidersPointClassificationRank(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersPointClassificationRank(raceId, offset, limit));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRidersMountainPointClassificationRank(int, int, int)}.
+     */
+    public int[] getRidersMountainPointClassificationRank(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRidersMountainPointClassificationRank(raceId, offset, limit));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRiderPositionInRace(int, ClassificationType, int)}.
+     */
+    public int getRiderPositionInRace(int raceId, ClassificationType type, int riderId)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRiderPositionInRace(raceId, type, riderId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRiderAtPositionInRace(int, ClassificationType, int)}.
+     */
+    public int getRiderAtPositionInRace(int raceId, ClassificationType type, int position)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRiderAtPositionInRace(raceId, type, position));
+    }
+
+    /**
+     * See {@link CyclingPortal#getRiderGapToLeaderInRace(int, int)}.
+     */
+    public Duration getRiderGapToLeaderInRace(int raceId, int riderId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getRiderGapToLeaderInRace(raceId, riderId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getTeamsRankInStage(int)}.
+     */
+    public int[] getTeamsRankInStage(int stageId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getTeamsRankInStage(stageId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getTeamTimesInStage(int)}.
+     */
+    public Duration[] getTeamTimesInStage(int stageId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getTeamTimesInStage(stageId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getTeamsRankInRace(int)}.
+     */
+    public int[] getTeamsRankInRace(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getTeamsRankInRace(raceId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getTeamTimesInRace(int)}.
+     */
+    public Duration[] getTeamTimesInRace(int raceId) throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getTeamTimesInRace(raceId));
+    }
+
+    /**
+     * See {@link CyclingPortal#createAgeCategory(String, int, int)}.
+     */
+    public int createAgeCategory(String name, int earliestYearOfBirth, int latestYearOfBirth)
+            throws IllegalNameException, InvalidNameException {
+        long stamp = registry.writeLock();
+        try {
+            return portal.createAgeCategory(name, earliestYearOfBirth, latestYearOfBirth);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#removeAgeCategory(int)}.
+     */
+    public void removeAgeCategory(int categoryId) throws IDNotRecognisedException {
+        long stamp = registry.writeLock();
+        try {
+            portal.removeAgeCategory(categoryId);
+        } finally {
+            registry.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#getAgeCategories()}.
+     */
+    public int[] getAgeCategories() {
+        long stamp = registry.readLock();
+        try {
+            return portal.getAgeCategories();
+        } finally {
+            registry.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * See {@link CyclingPortal#getAgeCategoryRankInStage(int, int)}.
+     */
+    public int[] getAgeCategoryRankInStage(int stageId, int categoryId) throws IDNotRecognisedException {
+        return readStage(stageId, () -> portal.getAgeCategoryRankInStage(stageId, categoryId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getAgeCategoryGeneralClassificationRank(int, int)}.
+     */
+    public int[] getAgeCategoryGeneralClassificationRank(int raceId, int categoryId)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getAgeCategoryGeneralClassificationRank(raceId, categoryId));
+    }
+
+    /**
+     * See {@link CyclingPortal#getAgeCategoryGeneralClassificationDurations(int, int)}.
+     */
+    public Duration[] getAgeCategoryGeneralClassificationDurations(int raceId, int categoryId)
+            throws IDNotRecognisedException {
+        return readRace(raceId, () -> portal.getAgeCategoryGeneralClassificationDurations(raceId, categoryId));
+    }
+
+    //**********************************//
+    //        Our Private methods       //
+    //**********************************//
+
+    //a query against the portal that may not find the ID it is given
+    private interface Query<T> {
+        T run() throws IDNotRecognisedException;
+    }
+
+    private StampedLock raceStripe(int raceId) {
+        return raceStripes[raceId & (STRIPES - 1)];
+    }
+
+    //must be called holding the registry lock, so the stage can't move or go away
+    private StampedLock stageStripe(int stageId) throws IDNotRecognisedException {
+        return raceStripe(portal.getRaceIdOfStage(stageId));
+    }
+
+    private <T> T readRegistry(Query<T> query) throws IDNotRecognisedException {
+        long stamp = registry.readLock();
+        try {
+            return query.run();
+        } finally {
+            registry.unlockRead(stamp);
+        }
+    }
+
+    private <T> T readRace(int raceId, Query<T> query) throws IDNotRecognisedException {
+        long stamp = registry.readLock();
+        try {
+            return readStripe(raceStripe(raceId), query);
+        } finally {
+            registry.unlockRead(stamp);
+        }
+    }
+
+    private <T> T readStage(int stageId, Query<T> query) throws IDNotRecognisedException {
+        long stamp = registry.readLock();
+        try {
+            return readStripe(stageStripe(stageId), query);
+        } finally {
+            registry.unlockRead(stamp);
+        }
+    }
+
+    //runs a ranking query sharing the race's stripe, so no result is deleted and no stage concluded meanwhile
+    private static <T> T readStripe(StampedLock stripe, Query<T> query) throws IDNotRecognisedException {
+        long stamp = stripe.readLock();
+        try {
+            return query.run();
+        } finally {
+            stripe.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cycling;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a set of IDs that many threads can add to and remove from at once without locking.
+ * IDs are handed out by the counters starting at 1, so like IdIndex it uses them straight
+ * as positions: one bit per ID, in blocks of 1024 IDs that are made the first time an ID
+ * in them is added. adding or removing an ID is a compare-and-set on one long, and only
+ * making a new block takes a lock, once per 1024 IDs
+ */
+final class ConcurrentIdSet {
+
+    private static final int WORDS_PER_BLOCK = 16;
+    private static final int IDS_PER_BLOCK_SHIFT = 10;
+
+    //only ever grows, and a block once made stays in place, so a reader never misses a bit
+    private volatile AtomicLongArray[] blocks = new AtomicLongArray[1];
+    private final AtomicInteger size = new AtomicInteger();
+
+    //adds an ID, returning false if it was already there
+    boolean add(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("ID can't be negative.");
+        }
+        AtomicLongArray block = block(id, true);
+        int word = wordOf(id);
+        long bit = 1L << id;
+        while (true) {
+            long current = block.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (block.compareAndSet(word, current, current | bit)) {
+                size.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    //removes an ID, returning false if it wasn't there
+    boolean remove(int id) {
+        AtomicLongArray block = block(id, false);
+        if (block == null) {
+            return false;
+        }
+        int word = wordOf(id);
+        long bit = 1L << id;
+        while (true) {
+            long current = block.get(word);
+            if ((current & bit) == 0) {
+                return false;
+            }
+            if (block.compareAndSet(word, current, current & ~bit)) {
+                size.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    boolean contains(int id) {
+        AtomicLongArray block = block(id, false);
+        return block != null && (block.get(wordOf(id)) & (1L << id)) != 0;
+    }
+
+    boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    private static int wordOf(int id) {
+        return (id >>> 6) & (WORDS_PER_BLOCK - 1);
+    }
+
+    //returns the block holding an ID, making it if asked to, or null if it isn't there
+    private AtomicLongArray block(int id, boolean make) {
+        if (id < 0) {
+            return null;
+        }
+        int index = id >>> IDS_PER_BLOCK_SHIFT;
+        AtomicLongArray[] current = blocks;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        if (!make) {
+            return null;
+        }
+        synchronized (this) {
+            current = blocks;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            }
+            if (current[index] == null) {
+                current[index] = new AtomicLongArray(WORDS_PER_BLOCK);
+            }
+            // written again even when it is the same array, so other threads see the new block
+            blocks = current;
+            return current[index];
+        }
+    }
+}
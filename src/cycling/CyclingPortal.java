@@ -1,17 +1,48 @@
 package cycling;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 
 public class CyclingPortal implements CyclingPortalInterface {
 
     private List<Race> raceList = new ArrayList<>();
     private List<Team> teamList = new ArrayList<>();
+    private List<AgeCategory> ageCategoryList = new ArrayList<>();
+
+    //ID lookups, kept in step with the lists above
+    private final IdIndex<Race> raceIndex = new IdIndex<>();
+    private final Map<String, Race> raceNameIndex = new HashMap<>();
+    private final IdIndex<Stage> stageIndex = new IdIndex<>();
+    private final IdIndex<Race> stageRaceIndex = new IdIndex<>();
+    private final IdIndex<Stage> segmentStageIndex = new IdIndex<>();
+    private final IdIndex<Team> teamIndex = new IdIndex<>();
+    private final Map<String, Team> teamNameIndex = new HashMap<>();
+    private final IdIndex<Rider> riderIndex = new IdIndex<>();
+    private final IdIndex<Team> riderTeamIndex = new IdIndex<>();
+    private final IdIndex<AgeCategory> ageCategoryIndex = new IdIndex<>();
+    private final Map<String, AgeCategory> ageCategoryNameIndex = new HashMap<>();
+    //the stages in which each rider has a result, concurrent since results for one rider can arrive in many stages at once
+    private final Map<Integer, Set<Stage>> riderStageIndex = new ConcurrentHashMap<>();
+
+    //ranking publishers, made when the first client subscribes to a stage or race
+    private final Map<Integer, RankingPublisher> stagePublishers = new ConcurrentHashMap<>();
+    private final Map<Integer, RankingPublisher> racePublishers = new ConcurrentHashMap<>();
+    private final Executor publisherExecutor = ForkJoinPool.commonPool();
 
     /**
      * Get the races currently created in the platform.
@@ -39,6 +70,8 @@ public class CyclingPortal implements CyclingPortalInterface {
 
         Race race = new Race(name, description);
         raceList.add(race);
+        raceIndex.put(race.getId(), race);
+        raceNameIndex.put(name, race);
 
         return race.getId();
     }
@@ -56,7 +89,7 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 * this method removes a race by the race ID entered
     	 */
         Race race = getRaceIfValidElseThrow(raceId);
-        raceList.remove(race);
+        removeRace(race);
     }
 
     public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
@@ -91,6 +124,10 @@ public class CyclingPortal implements CyclingPortalInterface {
 
         Stage stage = new Stage(stageName, description, length, startTime, type);
         race.add(stage);
+        stageIndex.put(stage.getId(), stage);
+        stageRaceIndex.put(stage.getId(), race);
+        // a stage without results empties the general classification until it has some
+        publisherChanged(racePublishers, raceId);
 
         return stage.getId();
     }
@@ -117,12 +154,10 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 * removes the stage which has been entered
     	 */
         Stage stage = getStageFromAnyRace(stageId);
-        for (Race race : raceList) {
-            if (race.getStageList().contains(stage)) {
-                race.remove(stage);
-                break;
-            }
-        }
+        Race race = stageRaceIndex.get(stageId);
+        race.remove(stage);
+        unindexStage(stage);
+        publisherChanged(racePublishers, race.getId());
     }
 
     public int addCategorizedClimbToStage(int stageId, Double location, SegmentType type, Double averageGradient,
@@ -151,6 +186,8 @@ public class CyclingPortal implements CyclingPortalInterface {
 
         Segment segment = new Segment(location, type, averageGradient, length);
         stage.add(segment);
+        indexSegment(segment, stage);
+        rankingsChanged(stage);
 
         return segment.getId();
     }
@@ -176,6 +213,8 @@ public class CyclingPortal implements CyclingPortalInterface {
 
         Segment segment = new Segment(location, SegmentType.SPRINT);
         stage.add(segment);
+        indexSegment(segment, stage);
+        rankingsChanged(stage);
 
         return segment.getId();
     }
@@ -189,17 +228,9 @@ public class CyclingPortal implements CyclingPortalInterface {
             throw new InvalidStageStateException("stage is \"waiting for results\".");
         }
 
-        Segment segmentToRemove = null;
-        List<Segment> segmentList = stage.getSegmentList();
-        for (Segment segment : segmentList) {
-            if (segment.getId() == segmentId) {
-                segmentToRemove = segment;
-                break;
-            }
-        }
-        if (segmentToRemove != null) {
-            stage.remove(segmentToRemove);
-        }
+        stage.removeSegment(segmentId);
+        segmentStageIndex.remove(segmentId);
+        rankingsChanged(stage);
     }
 
     public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
@@ -219,16 +250,11 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 */
         Stage stage = getStageFromAnyRace(stageId);
 
+        // the stage keeps its segments ordered by location
         List<Segment> segmentList = stage.getSegmentList();
         if (segmentList.isEmpty())
             return new int[0];
 
-        segmentList.sort((a, b) -> {
-            if (a.getLocation() < b.getLocation()) return -1;
-            if (a.getLocation() > b.getLocation()) return +1;
-            return 0;
-        });
-
         int[] ids = new int[segmentList.size()];
         for (int i = 0; i < ids.length; i++) {
             ids[i] = segmentList.get(i).getId();
@@ -241,17 +267,17 @@ public class CyclingPortal implements CyclingPortalInterface {
     	/**
     	 * creates a team by creating an ID 
     	 */
-        for (Team team : teamList) {
-            if (team.getName().equals(name)) {
-                throw new IllegalNameException("name already exists in the platform.");
-                //if the name is already in the system then an exception is thrown
-            }
+        if (teamNameIndex.containsKey(name)) {
+            throw new IllegalNameException("name already exists in the platform.");
+            //if the name is already in the system then an exception is thrown
         }
 
         validateName(name);
 
         Team team = new Team(name, description);
         teamList.add(team);
+        teamIndex.put(team.getId(), team);
+        teamNameIndex.put(name, team);
 
         return team.getId();
     }
@@ -262,6 +288,13 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 */
         Team team = getTeamIfValidElseThrow(teamId);
         teamList.remove(team);
+        teamIndex.remove(teamId);
+        teamNameIndex.remove(team.getName());
+        for (Rider rider : team.getRiderList()) {
+            riderIndex.remove(rider.getId());
+            riderTeamIndex.remove(rider.getId());
+            removeFromAgeCategories(rider.getId());
+        }
     }
 
     public int[] getTeams() {
@@ -302,6 +335,11 @@ public class CyclingPortal implements CyclingPortalInterface {
 
         Rider rider = new Rider(name, yearOfBirth);
         team.add(rider);
+        riderIndex.put(rider.getId(), rider);
+        riderTeamIndex.put(rider.getId(), team);
+        for (AgeCategory category : ageCategoryList) {
+            category.addIfCovered(rider);
+        }
 
         return rider.getId();
     }
@@ -310,17 +348,19 @@ public class CyclingPortal implements CyclingPortalInterface {
         Rider rider = getRiderIfValidElseThrow(riderId);
         Team team = getTeamForRiderElseThrow(riderId);
         team.remove(rider);
+        riderIndex.remove(riderId);
+        riderTeamIndex.remove(riderId);
+        removeFromAgeCategories(riderId);
 
         /* When a rider is removed from the platform,
          all of its results should be also removed.
          Race results must be updated.*/
 
-        for (Race race : raceList) {
-            for (Stage stage : race.getStageList()) {
-                if (stage.hasResult(riderId)) {
-                    RiderResult result = stage.getResult(riderId);
-                    stage.removeResult(result);
-                }
+        Set<Stage> stages = riderStageIndex.remove(riderId);
+        if (stages != null) {
+            for (Stage stage : stages) {
+                stage.removeResult(riderId);
+                rankingsChanged(stage);
             }
         }
     }
@@ -343,11 +383,215 @@ public class CyclingPortal implements CyclingPortalInterface {
             throw new InvalidCheckpointsException("length of checkpoints is not equal to n+2, where n is the number of segments in the stage; +2 represents the start time and the finish time of the stage.");
         }
 
-        if (stage.hasResult(riderId)) {
+        // checking and adding is one atomic step, so two feeds sending the same rider can't both get in
+        if (!stage.addResult(stageId, riderId, checkpoints)) {
             throw new DuplicatedResultException("rider has already a result for the stage. Each rider can have only one result per stage.");
         }
+        indexRiderResult(riderId, stage);
+        rankingsChanged(stage);
+    }
+
+    /**
+     * Record the results of many riders in a stage with one call, for example when
+     * loading a stage that has finished. The stage is looked up and checked once,
+     * and the cached rankings are dropped once for the whole batch. Either every
+     * result is recorded or, if any exception is thrown, none is.
+     *
+     * @param stageId     The ID of the stage the results refer to.
+     * @param riderIds    The IDs of the riders.
+     * @param checkpoints The checkpoint times of each rider, matching riderIds by
+     *                    index. Each row is laid out as for
+     *                    {@link #registerRiderResultsInStage(int, int, LocalTime...)}.
+     * @throws IDNotRecognisedException    If the stage ID or any rider ID does not
+     *                                     match to any stage or rider in the system.
+     * @throws DuplicatedResultException   If any rider already has a result for the
+     *                                     stage, or appears twice in riderIds.
+     * @throws InvalidCheckpointsException If any row does not have n+2 times, where
+     *                                     n is the number of segments in the stage.
+     * @throws InvalidStageStateException  If the stage is not "waiting for results".
+     * @throws IllegalArgumentException    If riderIds and checkpoints have different
+     *                                     lengths.
+     */
+    public void registerRiderResultsInStage(int stageId, int[] riderIds, LocalTime[][] checkpoints)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException,
+            InvalidStageStateException {
+        if (riderIds.length != checkpoints.length) {
+            throw new IllegalArgumentException("riderIds and checkpoints must have the same length.");
+        }
+
+        Stage stage = getStageFromAnyRace(stageId);
+        if (!stage.getStageState().equals("waiting for results")) {
+            throw new InvalidStageStateException("stage is not \"waiting for results\". Results can only be added to a stage while it is \"waiting for results\".");
+        }
 
-        stage.addResult(stageId, riderId, checkpoints);
+        // every row is checked before anything is recorded
+        int checkpointCount = stage.getSegmentList().size() + 2;
+        for (int i = 0; i < riderIds.length; i++) {
+            getRiderIfValidElseThrow(riderIds[i]);
+            if (checkpoints[i].length != checkpointCount) {
+                throw new InvalidCheckpointsException("length of checkpoints for rider " + riderIds[i] + " is not equal to n+2, where n is the number of segments in the stage.");
+            }
+        }
+
+        int duplicate = stage.addResults(riderIds, checkpoints);
+        if (duplicate >= 0) {
+            throw new DuplicatedResultException("rider " + riderIds[duplicate] + " has already a result for the stage. Each rider can have only one result per stage.");
+        }
+        for (int riderId : riderIds) {
+            indexRiderResult(riderId, stage);
+        }
+        rankingsChanged(stage);
+    }
+
+    /**
+     * Record a single timing mat crossing of a rider in a stage, as live timing
+     * delivers them. Checkpoint 0 is the start, checkpoints 1 to n are the segments
+     * in the order returned by {@link #getStageSegments(int)}, and checkpoint n+1 is
+     * the finish. The crossings can come in any order; once every checkpoint of the
+     * rider is in, the result counts as if it had been registered with
+     * {@link #registerRiderResultsInStage(int, int, LocalTime...)}.
+     *
+     * @param stageId         The ID of the stage the crossing refers to.
+     * @param riderId         The ID of the rider.
+     * @param checkpointIndex The checkpoint crossed.
+     * @param time            The time the rider crossed it.
+     * @return true if this crossing completed the rider's result.
+     * @throws IDNotRecognisedException    If the ID does not match to any rider or
+     *                                     stage in the system.
+     * @throws DuplicatedResultException   If the rider already has a complete result
+     *                                     for the stage, or has already crossed this
+     *                                     checkpoint.
+     * @throws InvalidCheckpointsException If checkpointIndex is not between 0 and
+     *                                     n+1.
+     * @throws InvalidStageStateException  If the stage is not "waiting for results".
+     */
+    public boolean registerRiderCheckpointInStage(int stageId, int riderId, int checkpointIndex, LocalTime time)
+            throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException,
+            InvalidStageStateException {
+        Stage stage = getStageFromAnyRace(stageId);
+        Rider rider = getRiderIfValidElseThrow(riderId);
+
+        if (!stage.getStageState().equals("waiting for results")) {
+            throw new InvalidStageStateException("stage is not \"waiting for results\". Results can only be added to a stage while it is \"waiting for results\".");
+        }
+        checkCheckpointIndex(stage, checkpointIndex);
+
+        boolean completed = stage.recordCheckpoint(stageId, riderId, checkpointIndex, time);
+        // indexed from the first crossing, so removing the rider also drops a result that isn't complete yet.
+        // only once the crossing is recorded, so a rejected one leaves no entry for a stage without the rider
+        indexRiderResult(riderId, stage);
+        if (completed) {
+            rankingsChanged(stage);
+        }
+        return completed;
+    }
+
+    /**
+     * Get the provisional standings at a checkpoint of a stage: every rider who has
+     * crossed it so far, with a complete result or still out on the stage, ordered
+     * by the time from their start to the checkpoint. Riders with the same time are
+     * ordered by ID. Checkpoints are numbered as in
+     * {@link #registerRiderCheckpointInStage(int, int, int, LocalTime)}.
+     *
+     * @param stageId         The ID of the stage being queried.
+     * @param checkpointIndex The checkpoint being queried.
+     * @return The IDs of the riders who have crossed the checkpoint, fastest first.
+     * @throws IDNotRecognisedException    If the ID does not match any stage in the
+     *                                     system.
+     * @throws InvalidCheckpointsException If checkpointIndex is not between 0 and
+     *                                     n+1.
+     */
+    public int[] getProvisionalRanksAtCheckpointInStage(int stageId, int checkpointIndex)
+            throws IDNotRecognisedException, InvalidCheckpointsException {
+        Stage stage = getStageFromAnyRace(stageId);
+        checkCheckpointIndex(stage, checkpointIndex);
+
+        long[] standings = stage.getProvisionalStandings(checkpointIndex);
+        int[] ids = new int[standings.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) standings[i];
+        }
+        return ids;
+    }
+
+    /**
+     * Get the times from the start to a checkpoint of a stage of every rider who
+     * has crossed it so far.
+     *
+     * @param stageId         The ID of the stage being queried.
+     * @param checkpointIndex The checkpoint being queried.
+     * @return The elapsed times, matching the riders returned by
+     *         {@link #getProvisionalRanksAtCheckpointInStage(int, int)}.
+     * @throws IDNotRecognisedException    If the ID does not match any stage in the
+     *                                     system.
+     * @throws InvalidCheckpointsException If checkpointIndex is not between 0 and
+     *                                     n+1.
+     */
+    public LocalTime[] getProvisionalElapsedTimesAtCheckpointInStage(int stageId, int checkpointIndex)
+            throws IDNotRecognisedException, InvalidCheckpointsException {
+        Stage stage = getStageFromAnyRace(stageId);
+        checkCheckpointIndex(stage, checkpointIndex);
+
+        long[] standings = stage.getProvisionalStandings(checkpointIndex);
+        LocalTime[] times = new LocalTime[standings.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = RiderResult.toLocalTime(standings[i] >>> 32);
+        }
+        return times;
+    }
+
+    /**
+     * Get the riders who have reached a segment so far, in the order they reached
+     * it, as results keep arriving. Riders reaching it in the same second are
+     * ordered by ID.
+     *
+     * @param segmentId The ID of the segment being queried.
+     * @param n         The most riders to return.
+     * @return The IDs of up to n riders, the first to reach the segment first.
+     * @throws IDNotRecognisedException If the ID does not match to any segment in
+     *                                  the system.
+     */
+    public int[] getTopRidersAtSegment(int segmentId, int n) throws IDNotRecognisedException {
+        Stage stage = getStageForSegmentIdFromAnyRace(segmentId);
+        long[] leaders = stage.getSegmentLeaders(stage.getSegmentPosition(segmentId), n);
+        int[] ids = new int[leaders.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) leaders[i];
+        }
+        return ids;
+    }
+
+    /**
+     * Get the rider leading at a segment right now, that is the first to reach it.
+     *
+     * @param segmentId The ID of the segment being queried.
+     * @return The ID of the leading rider, or -1 if no rider has reached the
+     *         segment yet.
+     * @throws IDNotRecognisedException If the ID does not match to any segment in
+     *                                  the system.
+     */
+    public int getLeaderAtSegment(int segmentId) throws IDNotRecognisedException {
+        int[] leader = getTopRidersAtSegment(segmentId, 1);
+        return leader.length == 0 ? -1 : leader[0];
+    }
+
+    /**
+     * Get the position of a rider at a segment among the riders who have reached
+     * it so far.
+     *
+     * @param segmentId The ID of the segment being queried.
+     * @param riderId   The ID of the rider.
+     * @return The rider's position, 1 for the first to reach the segment, or -1 if
+     *         the rider hasn't reached it yet.
+     * @throws IDNotRecognisedException If the ID does not match to any segment or
+     *                                  rider in the system.
+     */
+    public int getRiderPositionAtSegment(int segmentId, int riderId) throws IDNotRecognisedException {
+        Stage stage = getStageForSegmentIdFromAnyRace(segmentId);
+        Rider rider = getRiderIfValidElseThrow(riderId);
+
+        int position = stage.getPositionAtSegment(stage.getSegmentPosition(segmentId), riderId);
+        return position < 0 ? -1 : position + 1;
     }
 
     public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
@@ -357,11 +601,10 @@ public class CyclingPortal implements CyclingPortalInterface {
         Stage stage = getStageFromAnyRace(stageId);
         Rider rider = getRiderIfValidElseThrow(riderId);
 
-        if (!stage.hasResult(riderId)) {
+        RiderResult result = stage.getResult(riderId);
+        if (result == null) {
             return new LocalTime[0];
         }
-
-        RiderResult result = stage.getResult(riderId);
         return result.getSegmentTimes();
     }
 
@@ -374,18 +617,8 @@ public class CyclingPortal implements CyclingPortalInterface {
         Stage stage = getStageFromAnyRace(stageId);
         Rider rider = getRiderIfValidElseThrow(riderId);
 
-        if (!stage.hasResult(riderId)) {
-            return null;
-        }
-
-        RiderResult stageResult = stage.getResult(riderId);
-        if (stage.getStageType() == StageType.TT) {
-            return stageResult.getFinishTime();
-        }
-
-        LocalTime adjustedElapsedTime = stage.getAdjustedElapsedTime(riderId);
-
-        return adjustedElapsedTime;
+        // time-trials have no adjustments, the stage takes care of that
+        return stage.getAdjustedElapsedTime(riderId);
     }
 
     public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
@@ -394,8 +627,9 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 */
         Stage stage = getStageFromAnyRace(stageId);
         Rider rider = getRiderIfValidElseThrow(riderId);
-        RiderResult result = stage.getResult(riderId);
-        stage.removeResult(result);
+        stage.removeResult(riderId);
+        unindexRiderResult(riderId, stage);
+        rankingsChanged(stage);
     }
 
     public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
@@ -423,6 +657,111 @@ public class CyclingPortal implements CyclingPortalInterface {
         return adjustedElapsedTimes;
     }
 
+    /**
+     * Get one page of the ranking of {@link #getRidersRankInStage(int)}, for example
+     * the top 10 or the third page of 50. Only the page is copied out of the stage's
+     * cached ranking.
+     *
+     * @param stageId The ID of the stage being queried.
+     * @param offset  The position of the first rider of the page, 0 for the leader.
+     * @param limit   The most riders to return.
+     * @return The IDs of up to limit riders, starting at offset. An empty array if
+     *         there is no result for the stage or offset is past the last rider.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     * @throws IllegalArgumentException If offset or limit is negative.
+     */
+    public int[] getRidersRankInStage(int stageId, int offset, int limit) throws IDNotRecognisedException {
+        Stage stage = getStageFromAnyRace(stageId);
+        if (stage.hasNoResult()) {
+            return Page.of(new int[0], offset, limit);
+        }
+        return stage.getRiderRanks(offset, limit);
+    }
+
+    /**
+     * Get one page of the times of {@link #getRankedAdjustedElapsedTimesInStage(int)}.
+     *
+     * @param stageId The ID of the stage being queried.
+     * @param offset  The position of the first time of the page, 0 for the first.
+     * @param limit   The most times to return.
+     * @return Up to limit adjusted elapsed times, starting at offset. An empty array
+     *         if there is no result for the stage or offset is past the last rider.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     * @throws IllegalArgumentException If offset or limit is negative.
+     */
+    public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId, int offset, int limit)
+            throws IDNotRecognisedException {
+        Stage stage = getStageFromAnyRace(stageId);
+        if (stage.hasNoResult()) {
+            return Page.of(new LocalTime[0], offset, limit);
+        }
+        return stage.getAdjustedElapsedTimes(offset, limit);
+    }
+
+    /**
+     * Get the groups of riders finishing together in a stage. A rider finishing no more
+     * than one second after the rider in front is in the same group, and every rider in
+     * a group shares the adjusted elapsed time of the group's first rider.
+     *
+     * @param stageId The ID of the stage being queried.
+     * @return The riders' IDs of each group sorted by finish time, first group first.
+     *         An empty array if there is no result for the stage.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     */
+    public int[][] getFinishingGroupsInStage(int stageId) throws IDNotRecognisedException {
+        Stage stage = getStageFromAnyRace(stageId);
+        return stage.getFinishingGroups();
+    }
+
+    /**
+     * Keep the results of a stage outside the Java heap, as one fixed-width record
+     * per rider. Meant for mass-participation events where the results of tens of
+     * thousands of riders would otherwise fill the heap. Every other method works
+     * the same whichever storage a stage uses.
+     * <p>
+     * Only the stored results and the lookup from a rider to their result leave the
+     * heap. The rankings worked out from them, the segment leaderboards and the set of
+     * riders with a result stay on the heap, as primitive arrays of a few ints per
+     * rider and per segment with no object per rider, and so does the portal's index
+     * of the stages each rider has results in. Heap use therefore still grows with the
+     * field, just far more slowly than with the results on the heap.
+     *
+     * @param stageId The ID of the stage.
+     * @throws IDNotRecognisedException   If the ID does not match any stage in the
+     *                                    system.
+     * @throws InvalidStageStateException If the stage already has results.
+     */
+    public void useOffHeapResultsInStage(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
+        Stage stage = getStageFromAnyRace(stageId);
+        if (!stage.hasNoResult()) {
+            throw new InvalidStageStateException("stage already has results. The storage can only be changed before any result is registered.");
+        }
+        stage.useOffHeapResults();
+    }
+
+    /**
+     * Write the results of a stage to a file as they are laid out off the heap: two
+     * ints holding the number of checkpoints after the start and the number of
+     * riders, then per rider the rider ID, the start as a second of the day and the
+     * seconds from the start to every segment and to the finish. Ints are big-endian.
+     *
+     * @param stageId  The ID of the stage.
+     * @param filename Location of the file to be written.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     * @throws IOException              If there is a problem writing the file.
+     */
+    public void saveStageResults(int stageId, String filename) throws IDNotRecognisedException, IOException {
+        Stage stage = getStageFromAnyRace(stageId);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            stage.writeResults(channel);
+        }
+    }
+
     public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
     	/**
     	 * returns an integer array with all the riders points 
@@ -446,6 +785,45 @@ public class CyclingPortal implements CyclingPortalInterface {
         return stage.getRidersMountainPointsInStage();
     }
 
+    /**
+     * Get a publisher of the rider ranking of a stage, as returned by
+     * {@link #getRidersRankInStage(int)}. Subscribers are sent the ranking as it is
+     * when they subscribe and again whenever registering or deleting results, or
+     * adding or removing a segment, changes it. The ranking is worked out once per change for all subscribers, on a
+     * background thread. A subscriber that is behind is only ever sent the newest
+     * ranking, with the riders who changed since the last update it received. The
+     * subscriptions complete when the stage is removed.
+     *
+     * @param stageId The ID of the stage being followed.
+     * @return A publisher of the stage's ranking.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     */
+    public Flow.Publisher<RankingUpdate> getStageRankingPublisher(int stageId) throws IDNotRecognisedException {
+        Stage stage = getStageFromAnyRace(stageId);
+        return stagePublishers.computeIfAbsent(stageId, id -> new RankingPublisher(
+                () -> stage.hasNoResult() ? new int[0] : stage.getRiderRanks(), publisherExecutor));
+    }
+
+    /**
+     * Get a publisher of the general classification of a race, as returned by
+     * {@link #getRidersGeneralClassificationRank(int)}, which is sent like
+     * {@link #getStageRankingPublisher(int)} whenever results in any of the race's
+     * stages change, a stage is added or removed or a segment of one of its stages
+     * is added or removed. The subscriptions complete when the race is removed.
+     *
+     * @param raceId The ID of the race being followed.
+     * @return A publisher of the race's general classification.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public Flow.Publisher<RankingUpdate> getRaceRankingPublisher(int raceId) throws IDNotRecognisedException {
+        Race race = getRaceIfValidElseThrow(raceId);
+        return racePublishers.computeIfAbsent(raceId, id -> new RankingPublisher(
+                () -> race.hasResultsInEveryStage() ? race.getClassification().getGeneralClassificationIds() : new int[0],
+                publisherExecutor));
+    }
+
     /**
      * Method empties this MiniCyclingPortalInterface of its contents and resets all
      * internal counters.
@@ -453,59 +831,79 @@ public class CyclingPortal implements CyclingPortalInterface {
     public void eraseCyclingPortal() {
         raceList.clear();
         teamList.clear();
-        Race.availableId = 1;
-        Rider.availableId = 1;
-        Segment.availableId = 1;
-        Stage.availableId = 1;
-        Team.availableId = 1;
+        ageCategoryList.clear();
+        closePublishers();
+        rebuildIndexes();
+        Race.setAvailableId(1);
+        Rider.setAvailableId(1);
+        Segment.setAvailableId(1);
+        Stage.setAvailableId(1);
+        Team.setAvailableId(1);
+        AgeCategory.setAvailableId(1);
     }
 
     public void saveCyclingPortal(String filename) throws IOException {
     	/**
-    	 * this method saves the contents of internal coutners and saves them into a serialised and deserialised 
+    	 * this method saves the internal counters and everything in the portal in the compact binary format,
+    	 * see CompactPortalFormat
     	 */
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CompactPortalFormat.write(getDataToSave(), channel);
+        }
+    }
+
+    /**
+     * Method saves this portal's contents into a file with Java object
+     * serialization, the format {@link #saveCyclingPortal(String)} used before the
+     * compact binary format. {@link #loadCyclingPortal(String)} reads both formats,
+     * so this is only needed for tools that still read the old one, or to compare
+     * the two.
+     *
+     * @param filename Location of the file to be saved.
+     * @throws IOException If there is a problem experienced when trying to save the
+     *                     store contents to the file.
+     */
+    public void saveCyclingPortalSerialized(String filename) throws IOException {
         //Saving of object in a file
         FileOutputStream file = new FileOutputStream(filename);
         ObjectOutputStream out = new ObjectOutputStream(file);
 
         // Method for serialization of object
-        DataToSerializeDeserialize data = new DataToSerializeDeserialize();
+        out.writeObject(getDataToSave());
 
-        data.availableRaceId = Race.availableId;
-        data.availableRiderId = Rider.availableId;
-        data.availableSegmentId = Segment.availableId;
-        data.availableStageId = Stage.availableId;
-        data.availableTeamId = Team.availableId;
-        data.raceList = raceList;
-        data.teamList = teamList;
-
-        out.writeObject(data);
-        
         //closes the FileOutputStream and ObjectOutputStream
         out.close();
         file.close();
     }
 
     public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
-        // Reading the object from a file
-        FileInputStream file = new FileInputStream(filename);
-        ObjectInputStream in = new ObjectInputStream(file);
-
-        // Method for deserialization of object
-        DataToSerializeDeserialize data = (DataToSerializeDeserialize) in.readObject();
+        DataToSerializeDeserialize data;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            // files saved before the compact format are still read with object serialization
+            data = CompactPortalFormat.isCompact(channel) ? CompactPortalFormat.read(channel) : null;
+        }
+        if (data == null) {
+            data = readSerialized(filename);
+            // files from before age categories have none, and their counter was never saved
+            if (data.ageCategoryList == null) {
+                data.ageCategoryList = new ArrayList<>();
+                data.availableAgeCategoryId = 1;
+            }
+        }
 
-        Race.availableId = data.availableRaceId;
-        Rider.availableId = data.availableRiderId;
-        Segment.availableId = data.availableSegmentId;
-        Stage.availableId = data.availableStageId;
-        Team.availableId = data.availableTeamId;
+        Race.setAvailableId(data.availableRaceId);
+        Rider.setAvailableId(data.availableRiderId);
+        Segment.setAvailableId(data.availableSegmentId);
+        Stage.setAvailableId(data.availableStageId);
+        Team.setAvailableId(data.availableTeamId);
+        AgeCategory.setAvailableId(data.availableAgeCategoryId);
 
         raceList = data.raceList;
         teamList = data.teamList;
-
-        //closes the FileInputStream and ObjectInputStream
-        in.close();
-        file.close();
+        ageCategoryList = data.ageCategoryList;
+        closePublishers();
+        rebuildIndexes();
     }
 
     public void removeRaceByName(String name) throws NameNotRecognisedException {
@@ -513,45 +911,50 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 * removes a race by the name entered 
     	 */
         Race race = getRaceIfValidElseThrow(name);
-        raceList.remove(race);
+        removeRace(race);
     }
 
     public LocalTime[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
-        Race race = getRaceIfValidElseThrow(raceId);
-        List<Stage> stageList = race.getStageList();
-        for (Stage stage : stageList) {
-            if (stage.hasNoResult()) {
-                return new LocalTime[0];
-            }
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new LocalTime[0];
         }
 
-        Map<Integer, Integer> totalAdjustedTimes = new HashMap<>();
-
-        for (Stage stage : stageList) {
+        int[] totalAdjustedTimes = classification.getGeneralClassificationSeconds();
 
-            LocalTime[] adjustedElapsedTimes = stage.getAdjustedElapsedTimes();
-            int[] allIds = stage.getAllIds();
-
-            for (int i = 0; i < allIds.length; i++) {
-                int id = allIds[i];
-                LocalTime time = adjustedElapsedTimes[i];
-                totalAdjustedTimes.put(id, totalAdjustedTimes.getOrDefault(id, 0) + time.toSecondOfDay());
-            }
+        // a LocalTime can only hold less than a day, see getGeneralClassificationDurationsInRace for longer totals
+        LocalTime[] ans = new LocalTime[totalAdjustedTimes.length];
+        for (int j = 0; j < ans.length; j++) {
+            ans[j] = RiderResult.toLocalTime(totalAdjustedTimes[j]);
         }
 
-        LocalTime[] ans = new LocalTime[totalAdjustedTimes.keySet().size()];
-
-        int[] ridersGeneralClassificationRank = getRidersGeneralClassificationRank(raceId);
+        return ans;
+    }
 
-        for (int i = 0, j = 0; j < ans.length && i < ridersGeneralClassificationRank.length; i++, j++) {
-            int id = ridersGeneralClassificationRank[i];
-            int elapsedSeconds = totalAdjustedTimes.get(id);
-            int hour = elapsedSeconds / 3600;
-            int minute = (elapsedSeconds - hour * 3600) / 60;
-            int second = elapsedSeconds - hour * 3600 - minute * 60;
-            ans[j] = LocalTime.of(hour, minute, second);
+    /**
+     * Get the general classification times of riders in a race as durations.
+     * Unlike {@link #getGeneralClassificationTimesInRace(int)} the totals are not
+     * limited to 24 hours, so this is the one to use for multi-week races.
+     *
+     * @param raceId The ID of the race being queried.
+     * @return A list of riders' total adjusted elapsed times sorted by the sum of
+     *         their adjusted elapsed times in all stages of the race. An empty list
+     *         if there is no result for any stage in the race. These times match
+     *         the riders returned by {@link #getRidersGeneralClassificationRank(int)}.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public Duration[] getGeneralClassificationDurationsInRace(int raceId) throws IDNotRecognisedException {
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new Duration[0];
         }
 
+        int[] totalAdjustedTimes = classification.getGeneralClassificationSeconds();
+        Duration[] ans = new Duration[totalAdjustedTimes.length];
+        for (int j = 0; j < ans.length; j++) {
+            ans[j] = Duration.ofSeconds(totalAdjustedTimes[j]);
+        }
         return ans;
     }
 
@@ -559,36 +962,13 @@ public class CyclingPortal implements CyclingPortalInterface {
     	/**
     	 * Get the overall points of riders in a race
     	 */
-        Race race = getRaceIfValidElseThrow(raceId);
-        List<Stage> stageList = race.getStageList();
-        for (Stage stage : stageList) {
-            if (stage.hasNoResult()) {
-                return new int[0];
-            }
-        }
-
-        Map<Integer, Integer> totalPoints = new HashMap<>();
-        for (Stage stage : race.getStageList()) {
-            int[] ridersPointsInStage = stage.getRidersPointsInStage();
-            int[] allIds = stage.getAllIds();
-            for (int i = 0; i < allIds.length; i++) {
-                int id = allIds[i];
-                int point = ridersPointsInStage[i];
-                totalPoints.put(id, totalPoints.getOrDefault(id, 0) + point);
-            }
-        }
-
-        // now sort by the total elapsed time.
-        int[] ans = new int[totalPoints.keySet().size()];
-        int[] ridersGeneralClassificationRank = getRidersGeneralClassificationRank(raceId);
-
-        for (int i = 0, j = 0; j < ans.length && i < ridersGeneralClassificationRank.length; i++, j++) {
-            int id = ridersGeneralClassificationRank[i];
-            int totalPoint = totalPoints.get(id);
-            ans[j] = totalPoint;
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new int[0];
         }
 
-        return ans;
+        // already sorted by the total elapsed time.
+        return classification.getPoints();
     }
 
     public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
@@ -598,36 +978,12 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 * An empty list if there is no result for any stage in the race. 
     	 * These points should match the riders returned by getRidersGeneralClassificationRank(int).
     	 */
-        Race race = getRaceIfValidElseThrow(raceId);
-        List<Stage> stageList = race.getStageList();
-        for (Stage stage : stageList) {
-            if (stage.hasNoResult()) {
-                return new int[0];
-            }
-        }
-
-        Map<Integer, Integer> totalPoints = new HashMap<>();
-        for (Stage stage : race.getStageList()) {
-            int[] ridersPointsInStage = stage.getRidersMountainPointsInStage();
-            int[] allIds = stage.getAllIds();
-            for (int i = 0; i < allIds.length; i++) {
-                int id = allIds[i];
-                int point = ridersPointsInStage[i];
-                totalPoints.put(id, totalPoints.getOrDefault(id, 0) + point);
-            }
-        }
-
-        // now sort by the total elapsed time.
-        int[] ans = new int[totalPoints.keySet().size()];
-        int[] ridersGeneralClassificationRank = getRidersGeneralClassificationRank(raceId);
-
-        for (int i = 0, j = 0; j < ans.length && i < ridersGeneralClassificationRank.length; i++, j++) {
-            int id = ridersGeneralClassificationRank[i];
-            int totalPoint = totalPoints.get(id);
-            ans[j] = totalPoint;
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new int[0];
         }
 
-        return ans;
+        return classification.getMountainPoints();
     }
 
     public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
@@ -636,38 +992,12 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 * That is, the first in this list is the winner (least time). 
     	 * An empty list if there is no result for any stage in the race
     	 */
-        Race race = getRaceIfValidElseThrow(raceId);
-        List<Stage> stageList = race.getStageList();
-        for (Stage stage : stageList) {
-            if (stage.hasNoResult()) {
-                return new int[0];
-            }
-        }
-
-        Map<Integer, Integer> map = new HashMap<>();
-        for (Stage stage : race.getStageList()) {
-            LocalTime[] adjustedElapsedTimes = stage.getAdjustedElapsedTimes();
-            int[] allIds = stage.getAllIds();
-            for (int i = 0; i < allIds.length; i++) {
-                int id = allIds[i];
-                int time = adjustedElapsedTimes[i].toSecondOfDay();
-                map.put(id, map.getOrDefault(id, 0) + time);
-            }
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new int[0];
         }
 
-        List<Integer> idList = new ArrayList<>(map.keySet());
-
-        idList.sort((a, b) -> {
-            Integer pointA = map.get(a);
-            Integer pointB = map.get(b);
-            return pointA.compareTo(pointB);
-        });
-
-        int[] ans = new int[idList.size()];
-        for (int i = 0; i < ans.length; i++) {
-            ans[i] = idList.get(i);
-        }
-        return ans;
+        return classification.getGeneralClassificationIds();
     }
 
     public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
@@ -676,37 +1006,12 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 * That is, the first in this list is the winner (more points).  
     	 * An empty list if there is no result for any stage in the race
     	 */
-        Race race = getRaceIfValidElseThrow(raceId);
-        List<Stage> stageList = race.getStageList();
-        for (Stage stage : stageList) {
-            if (stage.hasNoResult()) {
-                return new int[0];
-            }
-        }
-
-        Map<Integer, Integer> map = new HashMap<>();
-        for (Stage stage : race.getStageList()) {
-            int[] ridersPointsInStage = stage.getRidersPointsInStage();
-            int[] allIds = stage.getAllIds();
-            for (int i = 0; i < allIds.length; i++) {
-                int id = allIds[i];
-                map.put(id, map.getOrDefault(id, 0) + ridersPointsInStage[i]);
-            }
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new int[0];
         }
 
-        List<Integer> idList = new ArrayList<>(map.keySet());
-
-        idList.sort((a, b) -> {
-            Integer pointA = map.get(a);
-            Integer pointB = map.get(b);
-            return pointA.compareTo(pointB);
-        });
-
-        int[] ans = new int[idList.size()];
-        for (int i = 0; i < ans.length; i++) {
-            ans[i] = idList.get(i);
-        }
-        return ans;
+        return classification.getPointsClassificationIds();
     }
 
     public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException {
@@ -715,35 +1020,400 @@ public class CyclingPortal implements CyclingPortalInterface {
     	 * That is, the first in this list is the winner (more points). 
     	 * An empty list if there is no result for any stage in the race
     	 */
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new int[0];
+        }
+
+        return classification.getMountainClassificationIds();
+    }
+
+    /**
+     * Get one page of the general classification of
+     * {@link #getRidersGeneralClassificationRank(int)}. Only the page is copied out
+     * of the race's cached classification.
+     *
+     * @param raceId The ID of the race being queried.
+     * @param offset The position of the first rider of the page, 0 for the leader.
+     * @param limit  The most riders to return.
+     * @return The IDs of up to limit riders, starting at offset. An empty array if
+     *         there is no result for any stage in the race or offset is past the
+     *         last rider.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     * @throws IllegalArgumentException If offset or limit is negative.
+     */
+    public int[] getRidersGeneralClassificationRank(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return Page.of(new int[0], offset, limit);
+        }
+        return classification.getGeneralClassificationIds(offset, limit);
+    }
+
+    /**
+     * Get the times of one page of the general classification, matching the riders
+     * returned by {@link #getRidersGeneralClassificationRank(int, int, int)}.
+     *
+     * @param raceId The ID of the race being queried.
+     * @param offset The position of the first time of the page, 0 for the leader.
+     * @param limit  The most times to return.
+     * @return Up to limit total adjusted elapsed times, starting at offset. An empty
+     *         array if there is no result for any stage in the race or offset is
+     *         past the last rider.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     * @throws IllegalArgumentException If offset or limit is negative.
+     */
+    public LocalTime[] getGeneralClassificationTimesInRace(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return Page.of(new LocalTime[0], offset, limit);
+        }
+
+        // only the page is turned into LocalTimes
+        int[] totalAdjustedTimes = classification.getGeneralClassificationSeconds(offset, limit);
+        LocalTime[] ans = new LocalTime[totalAdjustedTimes.length];
+        for (int j = 0; j < ans.length; j++) {
+            ans[j] = RiderResult.toLocalTime(totalAdjustedTimes[j]);
+        }
+        return ans;
+    }
+
+    /**
+     * Get one page of the points classification of
+     * {@link #getRidersPointClassificationRank(int)}.
+     *
+     * @param raceId The ID of the race being queried.
+     * @param offset The position of the first rider of the page, 0 for the leader.
+     * @param limit  The most riders to return.
+     * @return The IDs of up to limit riders, starting at offset. An empty array if
+     *         there is no result for any stage in the race or offset is past the
+     *         last rider.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     * @throws IllegalArgumentException If offset or limit is negative.
+     */
+    public int[] getRidersPointClassificationRank(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return Page.of(new int[0], offset, limit);
+        }
+        return classification.getPointsClassificationIds(offset, limit);
+    }
+
+    /**
+     * Get one page of the mountain classification of
+     * {@link #getRidersMountainPointClassificationRank(int)}.
+     *
+     * @param raceId The ID of the race being queried.
+     * @param offset The position of the first rider of the page, 0 for the leader.
+     * @param limit  The most riders to return.
+     * @return The IDs of up to limit riders, starting at offset. An empty array if
+     *         there is no result for any stage in the race or offset is past the
+     *         last rider.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     * @throws IllegalArgumentException If offset or limit is negative.
+     */
+    public int[] getRidersMountainPointClassificationRank(int raceId, int offset, int limit)
+            throws IDNotRecognisedException {
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return Page.of(new int[0], offset, limit);
+        }
+        return classification.getMountainClassificationIds(offset, limit);
+    }
+
+    /**
+     * Get the position of a rider in one of the classifications of a race, without
+     * building the whole ranking. The position is the one the rider has in the
+     * matching ranking, such as {@link #getRidersGeneralClassificationRank(int)}.
+     *
+     * @param raceId  The ID of the race being queried.
+     * @param type    The classification.
+     * @param riderId The ID of the rider.
+     * @return The rider's position, 1 for the leader, or -1 if the rider has no
+     *         result in the race or there is no result for any stage in the race.
+     * @throws IDNotRecognisedException If the ID does not match to any race or rider
+     *                                  in the system.
+     */
+    public int getRiderPositionInRace(int raceId, ClassificationType type, int riderId)
+            throws IDNotRecognisedException {
         Race race = getRaceIfValidElseThrow(raceId);
-        List<Stage> stageList = race.getStageList();
-        for (Stage stage : stageList) {
-            if (stage.hasNoResult()) {
-                return new int[0];
-            }
+        Rider rider = getRiderIfValidElseThrow(riderId);
+        if (!race.hasResultsInEveryStage()) {
+            return -1;
         }
 
-        Map<Integer, Integer> map = new HashMap<>();
-        for (Stage stage : race.getStageList()) {
-            int[] ridersPointsInStage = stage.getRidersMountainPointsInStage();
-            int[] allIds = stage.getAllIds();
-            for (int i = 0; i < allIds.length; i++) {
-                int id = allIds[i];
-                map.put(id, map.getOrDefault(id, 0) + ridersPointsInStage[i]);
-            }
+        int position = race.getPosition(type, riderId);
+        return position < 0 ? -1 : position + 1;
+    }
+
+    /**
+     * Get the rider at a position in one of the classifications of a race, without
+     * building the whole ranking.
+     *
+     * @param raceId   The ID of the race being queried.
+     * @param type     The classification.
+     * @param position The position, 1 for the leader.
+     * @return The ID of the rider at the position, or -1 if nobody is there or there
+     *         is no result for any stage in the race.
+     * @throws IDNotRecognisedException If the ID does not match to any race in the
+     *                                  system.
+     */
+    public int getRiderAtPositionInRace(int raceId, ClassificationType type, int position)
+            throws IDNotRecognisedException {
+        Race race = getRaceIfValidElseThrow(raceId);
+        if (!race.hasResultsInEveryStage()) {
+            return -1;
         }
+        return race.getRiderAt(type, position - 1);
+    }
 
-        List<Integer> idList = new ArrayList<>(map.keySet());
+    /**
+     * Get how far a rider is behind the leader of the general classification of a
+     * race, that is the difference between their total adjusted elapsed times.
+     *
+     * @param raceId  The ID of the race being queried.
+     * @param riderId The ID of the rider.
+     * @return The rider's gap to the leader, zero for the leader, or null if the
+     *         rider has no result in the race or there is no result for any stage
+     *         in the race.
+     * @throws IDNotRecognisedException If the ID does not match to any race or rider
+     *                                  in the system.
+     */
+    public Duration getRiderGapToLeaderInRace(int raceId, int riderId) throws IDNotRecognisedException {
+        Race race = getRaceIfValidElseThrow(raceId);
+        Rider rider = getRiderIfValidElseThrow(riderId);
+        if (!race.hasResultsInEveryStage()) {
+            return null;
+        }
 
-        idList.sort((a, b) -> {
-            Integer pointA = map.get(a);
-            Integer pointB = map.get(b);
-            return pointA.compareTo(pointB);
-        });
+        int seconds = race.getSecondsBehindLeader(riderId);
+        return seconds < 0 ? null : Duration.ofSeconds(seconds);
+    }
+
+    /**
+     * Get the team classification of a stage. A team's time is the sum of the
+     * adjusted elapsed times of its best {@value TeamClassification#COUNTED_RIDERS}
+     * riders in the stage; teams with fewer riders with a result are not classified.
+     *
+     * @param stageId The ID of the stage being queried.
+     * @return The IDs of the classified teams sorted by their time, least first.
+     *         Teams with the same time are sorted by ID. An empty array if there is
+     *         no result for the stage.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     */
+    public int[] getTeamsRankInStage(int stageId) throws IDNotRecognisedException {
+        Stage stage = getStageFromAnyRace(stageId);
+        return getTeamClassification(stage).getTeamIds();
+    }
+
+    /**
+     * Get the times of the team classification of a stage.
+     *
+     * @param stageId The ID of the stage being queried.
+     * @return The times of the classified teams, matching the teams returned by
+     *         {@link #getTeamsRankInStage(int)}. An empty array if there is no
+     *         result for the stage.
+     * @throws IDNotRecognisedException If the ID does not match any stage in the
+     *                                  system.
+     */
+    public Duration[] getTeamTimesInStage(int stageId) throws IDNotRecognisedException {
+        Stage stage = getStageFromAnyRace(stageId);
+        return getTeamClassification(stage).getTimes();
+    }
+
+    /**
+     * Get the team classification of a race. A team's time is the sum of its times
+     * in the team classifications of the stages, and only teams classified in every
+     * stage are classified in the race.
+     *
+     * @param raceId The ID of the race being queried.
+     * @return The IDs of the classified teams sorted by their time, least first.
+     *         Teams with the same time are sorted by ID. An empty array if there is
+     *         no result for any stage in the race.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public int[] getTeamsRankInRace(int raceId) throws IDNotRecognisedException {
+        TeamClassification classification = getTeamClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new int[0];
+        }
+        return classification.getTeamIds();
+    }
+
+    /**
+     * Get the times of the team classification of a race.
+     *
+     * @param raceId The ID of the race being queried.
+     * @return The times of the classified teams, matching the teams returned by
+     *         {@link #getTeamsRankInRace(int)}. An empty array if there is no result
+     *         for any stage in the race.
+     * @throws IDNotRecognisedException If the ID does not match any race in the
+     *                                  system.
+     */
+    public Duration[] getTeamTimesInRace(int raceId) throws IDNotRecognisedException {
+        TeamClassification classification = getTeamClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new Duration[0];
+        }
+        return classification.getTimes();
+    }
+
+    /**
+     * Creates an age category, such as young riders or masters, taking in every
+     * rider born between two years, those years included. Riders are put in their
+     * categories when they are created, so the category queries only filter the
+     * existing rankings.
+     *
+     * @param name                The identifier name of the category.
+     * @param earliestYearOfBirth The first year of birth in the category.
+     * @param latestYearOfBirth   The last year of birth in the category.
+     * @return The ID of the created category.
+     * @throws IllegalNameException     If the name already exists in the platform.
+     * @throws InvalidNameException     If the new name is null, empty, has more than
+     *                                  30 characters, or has white spaces.
+     * @throws IllegalArgumentException If earliestYearOfBirth is after
+     *                                  latestYearOfBirth.
+     */
+    public int createAgeCategory(String name, int earliestYearOfBirth, int latestYearOfBirth)
+            throws IllegalNameException, InvalidNameException {
+        if (ageCategoryNameIndex.containsKey(name)) {
+            throw new IllegalNameException("name already exists in the platform.");
+        }
+        validateName(name);
+        if (earliestYearOfBirth > latestYearOfBirth) {
+            throw new IllegalArgumentException("the earliest year of birth is after the latest year of birth.");
+        }
+
+        AgeCategory category = new AgeCategory(name, earliestYearOfBirth, latestYearOfBirth);
+        fillAgeCategory(category);
+        ageCategoryList.add(category);
+        ageCategoryIndex.put(category.getId(), category);
+        ageCategoryNameIndex.put(name, category);
+
+        return category.getId();
+    }
+
+    /**
+     * Removes an age category. The riders in it are not affected.
+     *
+     * @param categoryId The ID of the category to be removed.
+     * @throws IDNotRecognisedException If the ID does not match to any age category
+     *                                  in the system.
+     */
+    public void removeAgeCategory(int categoryId) throws IDNotRecognisedException {
+        AgeCategory category = getAgeCategoryIfValidElseThrow(categoryId);
+        ageCategoryList.remove(category);
+        ageCategoryIndex.remove(categoryId);
+        ageCategoryNameIndex.remove(category.getName());
+    }
+
+    /**
+     * Get the age categories currently created in the platform.
+     *
+     * @return An array of age category IDs in the system or an empty array if none
+     *         exists.
+     */
+    public int[] getAgeCategories() {
+        int[] ids = new int[ageCategoryList.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ageCategoryList.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ranking of the riders of an age category in a stage, that is the
+     * ranking of {@link #getRidersRankInStage(int)} keeping only the category's
+     * riders.
+     *
+     * @param stageId    The ID of the stage being queried.
+     * @param categoryId The ID of the age category.
+     * @return The IDs of the category's riders sorted by their elapsed time. An
+     *         empty array if there is no result for the stage.
+     * @throws IDNotRecognisedException If the ID does not match to any stage or age
+     *                                  category in the system.
+     */
+    public int[] getAgeCategoryRankInStage(int stageId, int categoryId) throws IDNotRecognisedException {
+        Stage stage = getStageFromAnyRace(stageId);
+        AgeCategory category = getAgeCategoryIfValidElseThrow(categoryId);
+        if (stage.hasNoResult()) {
+            return new int[0];
+        }
+
+        // the stage's ranking is already sorted, so the category's riders are picked out in order
+        int[] ranks = stage.getRankings().getRankedIds();
+        int[] positions = category.positionsIn(ranks);
+        int[] ids = new int[positions.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ranks[positions[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Get the general classification of the riders of an age category in a race,
+     * that is the ranking of {@link #getRidersGeneralClassificationRank(int)}
+     * keeping only the category's riders.
+     *
+     * @param raceId     The ID of the race being queried.
+     * @param categoryId The ID of the age category.
+     * @return The IDs of the category's riders sorted by the sum of their adjusted
+     *         elapsed times in all stages of the race. An empty array if there is no
+     *         result for any stage in the race.
+     * @throws IDNotRecognisedException If the ID does not match to any race or age
+     *                                  category in the system.
+     */
+    public int[] getAgeCategoryGeneralClassificationRank(int raceId, int categoryId)
+            throws IDNotRecognisedException {
+        AgeCategory category = getAgeCategoryIfValidElseThrow(categoryId);
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new int[0];
+        }
+
+        int[] generalIds = classification.getGeneralClassificationIds();
+        int[] positions = category.positionsIn(generalIds);
+        int[] ids = new int[positions.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = generalIds[positions[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Get the general classification times of the riders of an age category in a
+     * race.
+     *
+     * @param raceId     The ID of the race being queried.
+     * @param categoryId The ID of the age category.
+     * @return The category's riders' total adjusted elapsed times, matching the
+     *         riders returned by {@link #getAgeCategoryGeneralClassificationRank(int, int)}.
+     *         An empty array if there is no result for any stage in the race.
+     * @throws IDNotRecognisedException If the ID does not match to any race or age
+     *                                  category in the system.
+     */
+    public Duration[] getAgeCategoryGeneralClassificationDurations(int raceId, int categoryId)
+            throws IDNotRecognisedException {
+        AgeCategory category = getAgeCategoryIfValidElseThrow(categoryId);
+        RaceClassification classification = getClassificationIfAllStagesHaveResults(raceId);
+        if (classification == null) {
+            return new Duration[0];
+        }
 
-        int[] ans = new int[idList.size()];
+        int[] positions = category.positionsIn(classification.getGeneralClassificationIds());
+        int[] totalAdjustedTimes = classification.getGeneralClassificationSeconds();
+        Duration[] ans = new Duration[positions.length];
         for (int i = 0; i < ans.length; i++) {
-            ans[i] = idList.get(i);
+            ans[i] = Duration.ofSeconds(totalAdjustedTimes[positions[i]]);
         }
         return ans;
     }
@@ -752,6 +1422,36 @@ public class CyclingPortal implements CyclingPortalInterface {
     //        Our Private methods       //
     //**********************************//
 
+    //gathers the counters and lists that make up a saved portal
+    private DataToSerializeDeserialize getDataToSave() {
+        DataToSerializeDeserialize data = new DataToSerializeDeserialize();
+
+        data.availableRaceId = Race.getAvailableId();
+        data.availableRiderId = Rider.getAvailableId();
+        data.availableSegmentId = Segment.getAvailableId();
+        data.availableStageId = Stage.getAvailableId();
+        data.availableTeamId = Team.getAvailableId();
+        data.availableAgeCategoryId = AgeCategory.getAvailableId();
+        data.raceList = raceList;
+        data.teamList = teamList;
+        data.ageCategoryList = ageCategoryList;
+        return data;
+    }
+
+    private DataToSerializeDeserialize readSerialized(String filename) throws IOException, ClassNotFoundException {
+        // Reading the object from a file
+        FileInputStream file = new FileInputStream(filename);
+        ObjectInputStream in = new ObjectInputStream(file);
+
+        // Method for deserialization of object
+        DataToSerializeDeserialize data = (DataToSerializeDeserialize) in.readObject();
+
+        //closes the FileInputStream and ObjectInputStream
+        in.close();
+        file.close();
+        return data;
+    }
+
     private Race getRaceIfValidElseThrow(String name) throws NameNotRecognisedException {
         Race race = getRace(name);
         if (race == null) {
@@ -761,21 +1461,29 @@ public class CyclingPortal implements CyclingPortalInterface {
     }
 
     private Race getRace(int raceId) {
-        for (Race race : raceList) {
-            if (race.getId() == raceId) {
-                return race;
-            }
-        }
-        return null;
+        return raceIndex.get(raceId);
     }
 
     private Race getRace(String name) {
-        for (Race race : raceList) {
-            if (race.getName().equals(name)) {
-                return race;
-            }
+        return raceNameIndex.get(name);
+    }
+
+    //gets the classifications of a race, or null if any of its stages has no result yet
+    private RaceClassification getClassificationIfAllStagesHaveResults(int raceId) throws IDNotRecognisedException {
+        Race race = getRaceIfValidElseThrow(raceId);
+        return race.hasResultsInEveryStage() ? race.getClassification() : null;
+    }
+
+    private void checkCheckpointIndex(Stage stage, int checkpointIndex) throws InvalidCheckpointsException {
+        if (checkpointIndex < 0 || checkpointIndex > stage.getSegmentList().size() + 1) {
+            throw new InvalidCheckpointsException("checkpoint " + checkpointIndex + " is not between 0 (the start) and n+1 (the finish), where n is the number of segments in the stage.");
         }
-        return null;
+    }
+
+    //gets the ID of the race a stage belongs to
+    int getRaceIdOfStage(int stageId) throws IDNotRecognisedException {
+        getStageFromAnyRace(stageId);
+        return stageRaceIndex.get(stageId).getId();
     }
 
     private Race getRaceIfValidElseThrow(int raceId) throws IDNotRecognisedException {
@@ -787,72 +1495,220 @@ public class CyclingPortal implements CyclingPortalInterface {
     }
 
     private Stage getStageFromAnyRace(int stageId) throws IDNotRecognisedException {
-        for (Race race : raceList) {
-            Stage stage = race.getStage(stageId);
-            if (stage != null) {
-                return stage;
-            }
+        Stage stage = stageIndex.get(stageId);
+        if (stage != null) {
+            return stage;
         }
         throw new IDNotRecognisedException("ID does not match to any stage in the system.");
     }
 
     private Stage getStageForSegmentIdFromAnyRace(int segmentId) throws IDNotRecognisedException {
-        for (Race race : raceList) {
-            for (Stage stage : race.getStageList()) {
-                for (Segment segment : stage.getSegmentList()) {
-                    if (segment.getId() == segmentId) {
-                        return stage;
-                    }
-                }
-            }
+        Stage stage = segmentStageIndex.get(segmentId);
+        if (stage != null) {
+            return stage;
         }
         throw new IDNotRecognisedException("ID does not match to any segment in the system.");
     }
 
-    private Segment getSegmentFromAnyRace(int segmentId) throws IDNotRecognisedException {
-        for (Race race : raceList) {
-            for (Stage stage : race.getStageList()) {
-                for (Segment segment : stage.getSegmentList()) {
-                    if (segment.getId() == segmentId) {
-                        return segment;
-                    }
-                }
-            }
+    private AgeCategory getAgeCategoryIfValidElseThrow(int categoryId) throws IDNotRecognisedException {
+        AgeCategory category = ageCategoryIndex.get(categoryId);
+        if (category != null) {
+            return category;
         }
-        throw new IDNotRecognisedException("ID does not match to any segment in the system.");
+        throw new IDNotRecognisedException(categoryId + " does not exists.");
     }
 
     private Team getTeamIfValidElseThrow(int teamId) throws IDNotRecognisedException {
-        for (Team team : teamList) {
-            if (team.getId() == teamId) {
-                return team;
-            }
+        Team team = teamIndex.get(teamId);
+        if (team != null) {
+            return team;
         }
         throw new IDNotRecognisedException(teamId + " does not exists.");
     }
 
     private Rider getRiderIfValidElseThrow(int riderId) throws IDNotRecognisedException {
-        for (Team team : teamList) {
-            for (Rider rider : team.getRiderList()) {
-                if (rider.getId() == riderId) {
-                    return rider;
-                }
-            }
+        Rider rider = riderIndex.get(riderId);
+        if (rider != null) {
+            return rider;
         }
 
         throw new IDNotRecognisedException("ID does not match to any rider in the system");
     }
 
     private Team getTeamForRiderElseThrow(int riderId) throws IDNotRecognisedException {
+        Team team = riderTeamIndex.get(riderId);
+        if (team != null) {
+            return team;
+        }
+
+        throw new IDNotRecognisedException("ID does not match to any rider in the system");
+    }
+
+    //works out the team classification of a stage, empty if the stage has no result
+    private TeamClassification getTeamClassification(Stage stage) {
+        if (stage.hasNoResult()) {
+            return TeamClassification.empty();
+        }
+        return TeamClassification.ofStage(stage.getRankings(), riderTeamIndex);
+    }
+
+    //works out the team classification of a race, or null if any of its stages has no result yet
+    private TeamClassification getTeamClassificationIfAllStagesHaveResults(int raceId) throws IDNotRecognisedException {
+        Race race = getRaceIfValidElseThrow(raceId);
+        if (!race.hasResultsInEveryStage()) {
+            return null;
+        }
+        List<TeamClassification> stages = new ArrayList<>();
+        for (Stage stage : race.getStageList()) {
+            stages.add(TeamClassification.ofStage(stage.getRankings(), riderTeamIndex));
+        }
+        return TeamClassification.ofRace(stages);
+    }
+
+    //removes a race and drops it, its stages and their segments from the indexes
+    private void removeRace(Race race) {
+        raceList.remove(race);
+        raceIndex.remove(race.getId());
+        raceNameIndex.remove(race.getName());
+        for (Stage stage : race.getStageList()) {
+            unindexStage(stage);
+        }
+        closePublisher(racePublishers, race.getId());
+    }
+
+    private void unindexStage(Stage stage) {
+        stageIndex.remove(stage.getId());
+        stageRaceIndex.remove(stage.getId());
+        for (Segment segment : stage.getSegmentList()) {
+            segmentStageIndex.remove(segment.getId());
+        }
+        for (int riderId : stage.getAllIds()) {
+            unindexRiderResult(riderId, stage);
+        }
+        for (int riderId : stage.getPartialResultIds()) {
+            unindexRiderResult(riderId, stage);
+        }
+        closePublisher(stagePublishers, stage.getId());
+    }
+
+    //tells whoever follows a stage or its race that the stage's results changed
+    private void rankingsChanged(Stage stage) {
+        publisherChanged(stagePublishers, stage.getId());
+        Race race = stageRaceIndex.get(stage.getId());
+        if (race != null) {
+            publisherChanged(racePublishers, race.getId());
+        }
+    }
+
+    private static void publisherChanged(Map<Integer, RankingPublisher> publishers, int id) {
+        RankingPublisher publisher = publishers.get(id);
+        if (publisher != null) {
+            publisher.changed();
+        }
+    }
+
+    private static void closePublisher(Map<Integer, RankingPublisher> publishers, int id) {
+        RankingPublisher publisher = publishers.remove(id);
+        if (publisher != null) {
+            publisher.close();
+        }
+    }
+
+    //completes every subscription, used when the whole portal is replaced
+    private void closePublishers() {
+        for (RankingPublisher publisher : stagePublishers.values()) {
+            publisher.close();
+        }
+        for (RankingPublisher publisher : racePublishers.values()) {
+            publisher.close();
+        }
+        stagePublishers.clear();
+        racePublishers.clear();
+    }
+
+    private void indexSegment(Segment segment, Stage stage) {
+        segmentStageIndex.put(segment.getId(), stage);
+    }
+
+    //compute runs atomically for the rider, so adding and removing stages of one rider can't lose each other's changes
+    private void indexRiderResult(int riderId, Stage stage) {
+        riderStageIndex.compute(riderId, (id, stages) -> {
+            if (stages == null) {
+                stages = new HashSet<>();
+            }
+            stages.add(stage);
+            return stages;
+        });
+    }
+
+    private void unindexRiderResult(int riderId, Stage stage) {
+        riderStageIndex.computeIfPresent(riderId, (id, stages) -> {
+            stages.remove(stage);
+            return stages.isEmpty() ? null : stages;
+        });
+    }
+
+    //fills the indexes again from the race and team lists, used after erase and load
+    private void rebuildIndexes() {
+        raceIndex.clear();
+        raceNameIndex.clear();
+        stageIndex.clear();
+        stageRaceIndex.clear();
+        segmentStageIndex.clear();
+        teamIndex.clear();
+        teamNameIndex.clear();
+        riderIndex.clear();
+        riderTeamIndex.clear();
+        riderStageIndex.clear();
+        ageCategoryIndex.clear();
+        ageCategoryNameIndex.clear();
+
+        for (Race race : raceList) {
+            raceIndex.put(race.getId(), race);
+            raceNameIndex.put(race.getName(), race);
+            for (Stage stage : race.getStageList()) {
+                stageIndex.put(stage.getId(), stage);
+                stageRaceIndex.put(stage.getId(), race);
+                for (Segment segment : stage.getSegmentList()) {
+                    indexSegment(segment, stage);
+                }
+                for (int riderId : stage.getAllIds()) {
+                    indexRiderResult(riderId, stage);
+                }
+                for (int riderId : stage.getPartialResultIds()) {
+                    indexRiderResult(riderId, stage);
+                }
+            }
+        }
         for (Team team : teamList) {
+            teamIndex.put(team.getId(), team);
+            teamNameIndex.put(team.getName(), team);
             for (Rider rider : team.getRiderList()) {
-                if (rider.getId() == riderId) {
-                    return team;
-                }
+                riderIndex.put(rider.getId(), rider);
+                riderTeamIndex.put(rider.getId(), team);
             }
         }
+        for (AgeCategory category : ageCategoryList) {
+            ageCategoryIndex.put(category.getId(), category);
+            ageCategoryNameIndex.put(category.getName(), category);
+            fillAgeCategory(category);
+        }
+    }
 
-        throw new IDNotRecognisedException("ID does not match to any rider in the system");
+    //puts every rider born in the category's years in it
+    private void fillAgeCategory(AgeCategory category) {
+        category.clear();
+        for (Team team : teamList) {
+            for (Rider rider : team.getRiderList()) {
+                category.addIfCovered(rider);
+            }
+        }
+    }
+
+    private void removeFromAgeCategories(int riderId) {
+        for (AgeCategory category : ageCategoryList) {
+            category.remove(riderId);
+        }
     }
 
     private void validateName(String name) throws InvalidNameException {
@@ -4,12 +4,18 @@ import java.io.Serializable;
 import java.util.List;
 
 public class DataToSerializeDeserialize implements Serializable {
+    //the UIDs of the saved classes are the ones the JVM worked out for them before they changed,
+    //so files written with object serialization back then can still be loaded
+    private static final long serialVersionUID = -983591298781071263L;
+
     public int availableRaceId;
     public int availableRiderId;
     public int availableSegmentId;
     public int availableStageId;
     public int availableTeamId;
+    public int availableAgeCategoryId;
 
     public List<Race> raceList;
     public List<Team> teamList;
+    public List<AgeCategory> ageCategoryList;
 }
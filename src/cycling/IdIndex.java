@@ -0,0 +1,46 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * a dense lookup table from an ID to the object with that ID.
+ * IDs are handed out by the availableId counters starting at 1, so they can be
+ * used straight as array positions and every lookup is a single array read
+ */
+class IdIndex<T> {
+
+    private Object[] slots = new Object[16];
+
+    //returns the object with the given ID, or null if there is none
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        if (id < 0 || id >= slots.length) {
+            return null;
+        }
+        return (T) slots[id];
+    }
+
+    //adds or replaces the object stored for an ID, growing the table if needed
+    void put(int id, T value) {
+        if (id < 0) {
+            throw new IllegalArgumentException("ID can't be negative.");
+        }
+        if (id >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(slots.length * 2, id + 1));
+        }
+        slots[id] = value;
+    }
+
+    //removes the object stored for an ID and returns it
+    T remove(int id) {
+        T value = get(id);
+        if (value != null) {
+            slots[id] = null;
+        }
+        return value;
+    }
+
+    void clear() {
+        slots = new Object[16];
+    }
+}
@@ -0,0 +1,206 @@
+package cycling;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a map from int keys to int values that holds no object per entry.
+ * it is an open addressing table with linear probing: every slot is a pair of ints, the key
+ * and the value plus one, with 0 marking an empty slot, so values can't be negative.
+ * removing an entry shifts back the entries after it instead of leaving a tombstone.
+ * the slots are an int array on the heap, or a direct buffer off it for the stages that
+ * keep their results off the heap
+ */
+abstract class IntIntMap {
+
+    private static final int MIN_SLOTS = 16;
+
+    private int size;
+    private int slotMask;
+
+    IntIntMap(int expectedSize) {
+        int slots = slotsFor(expectedSize);
+        allocate(slots);
+        slotMask = slots - 1;
+    }
+
+    static IntIntMap onHeap(int expectedSize) {
+        return new HeapSlots(expectedSize);
+    }
+
+    static IntIntMap offHeap(int expectedSize) {
+        return new DirectSlots(expectedSize);
+    }
+
+    //makes room for the given number of empty slots, dropping the ones there were
+    abstract void allocate(int slots);
+
+    abstract int keyAt(int slot);
+
+    //the value plus one, 0 if the slot is empty
+    abstract int storedAt(int slot);
+
+    abstract void set(int slot, int key, int stored);
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean containsKey(int key) {
+        return get(key) >= 0;
+    }
+
+    //returns the value of a key, or -1 if the key isn't in the map
+    int get(int key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & slotMask) {
+            int stored = storedAt(slot);
+            if (stored == 0) {
+                return -1;
+            }
+            if (keyAt(slot) == key) {
+                return stored - 1;
+            }
+        }
+    }
+
+    //adds or replaces the value of a key
+    void put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value can't be negative.");
+        }
+        int slot = slotOf(key);
+        while (storedAt(slot) != 0 && keyAt(slot) != key) {
+            slot = (slot + 1) & slotMask;
+        }
+        if (storedAt(slot) == 0) {
+            size++;
+        }
+        set(slot, key, value + 1);
+        // kept at most half full, so probes stay short
+        if (size * 2 > slotMask + 1) {
+            resize((slotMask + 1) * 2);
+        }
+    }
+
+    //removes a key and returns its value, or -1 if the key wasn't in the map
+    int remove(int key) {
+        int slot = slotOf(key);
+        while (true) {
+            int stored = storedAt(slot);
+            if (stored == 0) {
+                return -1;
+            }
+            if (keyAt(slot) == key) {
+                break;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        int value = storedAt(slot) - 1;
+
+        int hole = slot;
+        for (int next = (hole + 1) & slotMask; storedAt(next) != 0; next = (next + 1) & slotMask) {
+            int home = slotOf(keyAt(next));
+            // an entry can move into the hole if the hole lies between its home slot and where it is now
+            if (((next - home) & slotMask) >= ((next - hole) & slotMask)) {
+                set(hole, keyAt(next), storedAt(next));
+                hole = next;
+            }
+        }
+        set(hole, 0, 0);
+        size--;
+        return value;
+    }
+
+    void clear() {
+        allocate(MIN_SLOTS);
+        slotMask = MIN_SLOTS - 1;
+        size = 0;
+    }
+
+    private int slotOf(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & slotMask;
+    }
+
+    //moves every entry into a table of the given number of slots
+    private void resize(int slots) {
+        int[] entries = new int[size * 2];
+        int count = 0;
+        for (int slot = 0; slot <= slotMask; slot++) {
+            if (storedAt(slot) != 0) {
+                entries[count++] = keyAt(slot);
+                entries[count++] = storedAt(slot);
+            }
+        }
+        allocate(slots);
+        slotMask = slots - 1;
+        for (int i = 0; i < count; i += 2) {
+            int slot = slotOf(entries[i]);
+            while (storedAt(slot) != 0) {
+                slot = (slot + 1) & slotMask;
+            }
+            set(slot, entries[i], entries[i + 1]);
+        }
+    }
+
+    //the smallest power of two that holds the given number of entries at most half full
+    private static int slotsFor(int expectedSize) {
+        return Math.max(MIN_SLOTS, Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1) << 1);
+    }
+
+    private static final class HeapSlots extends IntIntMap {
+        //key and stored value of slot i at 2i and 2i + 1, so a probe reads neighbouring ints
+        private int[] slots;
+
+        HeapSlots(int expectedSize) {
+            super(expectedSize);
+        }
+
+        void allocate(int slotCount) {
+            slots = new int[slotCount * 2];
+        }
+
+        int keyAt(int slot) {
+            return slots[slot * 2];
+        }
+
+        int storedAt(int slot) {
+            return slots[slot * 2 + 1];
+        }
+
+        void set(int slot, int key, int stored) {
+            slots[slot * 2] = key;
+            slots[slot * 2 + 1] = stored;
+        }
+    }
+
+    private static final class DirectSlots extends IntIntMap {
+        private static final int SLOT_BYTES = 8;
+
+        private ByteBuffer slots;
+
+        DirectSlots(int expectedSize) {
+            super(expectedSize);
+        }
+
+        void allocate(int slotCount) {
+            slots = ByteBuffer.allocateDirect(slotCount * SLOT_BYTES);
+        }
+
+        int keyAt(int slot) {
+            return slots.getInt(slot * SLOT_BYTES);
+        }
+
+        int storedAt(int slot) {
+            return slots.getInt(slot * SLOT_BYTES + 4);
+        }
+
+        void set(int slot, int key, int stored) {
+            slots.putInt(slot * SLOT_BYTES, key);
+            slots.putInt(slot * SLOT_BYTES + 4, stored);
+        }
+    }
+}
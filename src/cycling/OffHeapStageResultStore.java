@@ -0,0 +1,240 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.LocalTime;
+
+/**
+ * keeps a stage's results outside the Java heap, for events with tens of thousands of riders.
+ * every row is a fixed-width record in one direct buffer:
+ *
+ *   int riderId, int startSecond, int secondsToCheckpoint[checkpointCount]
+ *
+ * and the rider to row lookup is an IntIntMap whose slots are in a second direct buffer,
+ * so the heap holds the same few objects however many riders there are.
+ * writeTo puts out a header of (checkpointCount, size) followed by the records as they are
+ */
+class OffHeapStageResultStore implements StageResultStore {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private int checkpointCount = -1;
+    private transient int recordBytes;
+    private transient int capacity;
+    private transient ByteBuffer records;
+    private transient IntIntMap rows;
+
+    OffHeapStageResultStore() {
+        allocate(INITIAL_CAPACITY);
+        rows = IntIntMap.offHeap(INITIAL_CAPACITY);
+    }
+
+    //makes empty buffers for the given number of rows
+    private void allocate(int rowCount) {
+        capacity = rowCount;
+        recordBytes = recordBytes(Math.max(checkpointCount, 0));
+        records = ByteBuffer.allocateDirect(capacity * recordBytes);
+    }
+
+    private static int recordBytes(int checkpointCount) {
+        return (2 + checkpointCount) * Integer.BYTES;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int riderId) {
+        return rows.containsKey(riderId);
+    }
+
+    public int rowOf(int riderId) {
+        return rows.get(riderId);
+    }
+
+    public void add(int riderId, LocalTime[] checkpoints) {
+        int count = checkpoints.length - 1;
+        setCheckpointCount(count);
+        ensureCapacity(size + 1);
+
+        int start = checkpoints[0].toSecondOfDay();
+        int offset = size * recordBytes;
+        records.putInt(offset, riderId);
+        records.putInt(offset + 4, start);
+        for (int c = 0; c < count; c++) {
+            records.putInt(offset + 8 + c * 4, RiderResult.secondsSince(start, checkpoints[c + 1]));
+        }
+        rows.put(riderId, size);
+        size++;
+    }
+
+    public void addRows(int[] riderIds, int[] startSeconds, int[][] checkpointSeconds) {
+        if (riderIds.length == 0) {
+            return;
+        }
+        setCheckpointCount(checkpointSeconds.length);
+        ensureCapacity(size + riderIds.length);
+
+        for (int i = 0; i < riderIds.length; i++) {
+            int offset = size * recordBytes;
+            records.putInt(offset, riderIds[i]);
+            records.putInt(offset + 4, startSeconds[i]);
+            for (int c = 0; c < checkpointSeconds.length; c++) {
+                records.putInt(offset + 8 + c * 4, checkpointSeconds[c][i]);
+            }
+            rows.put(riderIds[i], size);
+            size++;
+        }
+    }
+
+    private void setCheckpointCount(int count) {
+        if (size == 0 && count != checkpointCount) {
+            // the first row fixes the record width
+            checkpointCount = count;
+            allocate(capacity);
+        } else if (count != checkpointCount) {
+            throw new IllegalArgumentException("expected " + (checkpointCount + 1) + " checkpoints.");
+        }
+    }
+
+    public boolean remove(int riderId) {
+        int row = rows.remove(riderId);
+        if (row < 0) {
+            return false;
+        }
+        int last = size - 1;
+        if (row != last) {
+            int from = last * recordBytes;
+            int to = row * recordBytes;
+            for (int b = 0; b < recordBytes; b += 4) {
+                records.putInt(to + b, records.getInt(from + b));
+            }
+            rows.put(records.getInt(to), row);
+        }
+        size--;
+        return true;
+    }
+
+    public void ensureCapacity(int rowCount) {
+        if (rowCount <= capacity) {
+            return;
+        }
+        ByteBuffer oldRecords = records;
+        allocate(Math.max(rowCount, capacity * 2));
+        oldRecords.limit(size * recordBytes).position(0);
+        records.put(oldRecords);
+    }
+
+    public int getRiderId(int row) {
+        return records.getInt(row * recordBytes);
+    }
+
+    public int getStartSecond(int row) {
+        return records.getInt(row * recordBytes + 4);
+    }
+
+    public int getElapsedSeconds(int row) {
+        return records.getInt(row * recordBytes + recordBytes - 4);
+    }
+
+    public int getFinishSecond(int row) {
+        return getStartSecond(row) + getElapsedSeconds(row);
+    }
+
+    public int getCheckpointSecondOfDay(int row, int checkpoint) {
+        return getStartSecond(row) + records.getInt(row * recordBytes + 8 + checkpoint * 4);
+    }
+
+    public int[] getRiderIds() {
+        int[] ids = new int[size];
+        for (int row = 0; row < size; row++) {
+            ids[row] = getRiderId(row);
+        }
+        return ids;
+    }
+
+    public int[] getStartSeconds() {
+        int[] seconds = new int[size];
+        for (int row = 0; row < size; row++) {
+            seconds[row] = getStartSecond(row);
+        }
+        return seconds;
+    }
+
+    public int[] getCheckpointSecondsOfDay(int checkpoint) {
+        int[] seconds = new int[size];
+        int offset = 8 + checkpoint * 4;
+        for (int row = 0; row < size; row++) {
+            seconds[row] = getStartSecond(row) + records.getInt(row * recordBytes + offset);
+        }
+        return seconds;
+    }
+
+    public int[] getElapsedSeconds() {
+        int[] seconds = new int[size];
+        for (int row = 0; row < size; row++) {
+            seconds[row] = getElapsedSeconds(row);
+        }
+        return seconds;
+    }
+
+    public RiderResult getResult(int stageId, int row) {
+        int[] checkpointSeconds = new int[checkpointCount];
+        for (int c = 0; c < checkpointCount; c++) {
+            checkpointSeconds[c] = records.getInt(row * recordBytes + 8 + c * 4);
+        }
+        return new RiderResult(stageId, getRiderId(row), getStartSecond(row), checkpointSeconds);
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        writeFully(channel, header(checkpointCount, size));
+        ByteBuffer view = records.duplicate();
+        view.limit(size * recordBytes).position(0);
+        writeFully(channel, view);
+    }
+
+    //the header written in front of the records by every store
+    static ByteBuffer header(int checkpointCount, int size) {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(checkpointCount).putInt(size).flip();
+        return header;
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    //the buffers are not serializable, so the used part of the records is written out instead
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        for (int row = 0; row < size; row++) {
+            for (int b = 0; b < recordBytes; b += 4) {
+                out.writeInt(records.getInt(row * recordBytes + b));
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        allocate(Math.max(size, INITIAL_CAPACITY));
+        rows = IntIntMap.offHeap(size);
+        for (int row = 0; row < size; row++) {
+            for (int b = 0; b < recordBytes; b += 4) {
+                records.putInt(row * recordBytes + b, in.readInt());
+            }
+            rows.put(getRiderId(row), row);
+        }
+    }
+}
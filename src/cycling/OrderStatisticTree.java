@@ -0,0 +1,290 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * a sorted set of long keys that can also be asked for the key at a position and the
+ * position of a key. it is a treap: a binary search tree on the keys that is also a heap
+ * on random priorities, which keeps it balanced on average, and every node remembers how
+ * many nodes are under it. adding, removing, finding by position and finding the position
+ * all take O(log n).
+ * the nodes are kept column by column in primitive arrays rather than as one object each,
+ * node n being keys[n], priorities[n], sizes[n], lefts[n] and rights[n]. node 0 is never
+ * used and stands for no node, so its size is always 0. removed nodes are chained through
+ * rights into a free list and used again by the next add
+ */
+class OrderStatisticTree {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] keys;
+    private int[] priorities;
+    private int[] sizes;
+    private int[] lefts;
+    private int[] rights;
+    //highest node handed out so far
+    private int nodeCount;
+    private int free;
+    private int root;
+    private int seed = 0x2545F491;
+
+    //the two trees split last returns, kept here so splitting makes no garbage
+    private int splitLeft;
+    private int splitRight;
+
+    OrderStatisticTree() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        priorities = new int[capacity];
+        sizes = new int[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        nodeCount = 0;
+        free = 0;
+        root = 0;
+    }
+
+    int size() {
+        return sizes[root];
+    }
+
+    boolean isEmpty() {
+        return root == 0;
+    }
+
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    boolean contains(long key) {
+        int node = root;
+        while (node != 0) {
+            if (key == keys[node]) {
+                return true;
+            }
+            node = key < keys[node] ? lefts[node] : rights[node];
+        }
+        return false;
+    }
+
+    //adds a key, returning false if it is already there
+    boolean add(long key) {
+        if (contains(key)) {
+            return false;
+        }
+        int node = newNode(key);
+        split(root, key);
+        root = merge(merge(splitLeft, node), splitRight);
+        return true;
+    }
+
+    //removes a key, returning false if it wasn't there
+    boolean remove(long key) {
+        if (!contains(key)) {
+            return false;
+        }
+        root = remove(root, key);
+        return true;
+    }
+
+    //replaces the keys with the given ones, which must be sorted, in O(n) rather than O(n log n).
+    //the nodes go down the right spine of the tree in key order, and each new node takes the
+    //nodes of lower priority at the bottom of the spine as its left subtree, keeping the heap order
+    void build(long[] sortedKeys) {
+        allocate(Math.max(INITIAL_CAPACITY, sortedKeys.length + 1));
+        int[] spine = new int[32];
+        int depth = 0;
+        for (int i = 0; i < sortedKeys.length; i++) {
+            if (i > 0 && sortedKeys[i] == sortedKeys[i - 1]) {
+                continue;
+            }
+            int node = newNode(sortedKeys[i]);
+            int below = 0;
+            while (depth > 0 && priorities[spine[depth - 1]] < priorities[node]) {
+                below = spine[--depth];
+            }
+            lefts[node] = below;
+            if (depth > 0) {
+                rights[spine[depth - 1]] = node;
+            }
+            if (depth == spine.length) {
+                spine = Arrays.copyOf(spine, depth * 2);
+            }
+            spine[depth++] = node;
+        }
+        root = depth == 0 ? 0 : spine[0];
+        updateSizes(root);
+    }
+
+    //returns the key at a position, counting from 0 for the smallest
+    long get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(index + " is not a position in a tree of " + size() + " keys.");
+        }
+        int node = root;
+        while (true) {
+            int leftSize = sizes[lefts[node]];
+            if (index < leftSize) {
+                node = lefts[node];
+            } else if (index == leftSize) {
+                return keys[node];
+            } else {
+                index -= leftSize + 1;
+                node = rights[node];
+            }
+        }
+    }
+
+    //returns how many keys are smaller than the given one, which is its position if it is in the tree
+    int rank(long key) {
+        int rank = 0;
+        int node = root;
+        while (node != 0) {
+            if (key <= keys[node]) {
+                node = lefts[node];
+            } else {
+                rank += sizes[lefts[node]] + 1;
+                node = rights[node];
+            }
+        }
+        return rank;
+    }
+
+    //returns the position of a key, or -1 if it isn't in the tree
+    int indexOf(long key) {
+        return contains(key) ? rank(key) : -1;
+    }
+
+    //returns up to n of the smallest keys, smallest first
+    long[] first(int n) {
+        long[] result = new long[Math.max(0, Math.min(n, size()))];
+        // walks the tree in order with an explicit stack, stopping once enough keys are out
+        int[] stack = new int[32];
+        int depth = 0;
+        int count = 0;
+        int node = root;
+        while (count < result.length) {
+            while (node != 0) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                node = lefts[node];
+            }
+            node = stack[--depth];
+            result[count++] = keys[node];
+            node = rights[node];
+        }
+        return result;
+    }
+
+    //returns every key, smallest first
+    long[] toArray() {
+        return first(size());
+    }
+
+    private int nextPriority() {
+        // xorshift, enough to keep the tree balanced
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    //hands out a node for a key, from the free list if it has one
+    private int newNode(long key) {
+        int node;
+        if (free != 0) {
+            node = free;
+            free = rights[node];
+        } else {
+            node = ++nodeCount;
+            if (node == keys.length) {
+                int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                priorities = Arrays.copyOf(priorities, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                lefts = Arrays.copyOf(lefts, capacity);
+                rights = Arrays.copyOf(rights, capacity);
+            }
+        }
+        keys[node] = key;
+        priorities[node] = nextPriority();
+        sizes[node] = 1;
+        lefts[node] = 0;
+        rights[node] = 0;
+        return node;
+    }
+
+    private void release(int node) {
+        sizes[node] = 0;
+        lefts[node] = 0;
+        rights[node] = free;
+        free = node;
+    }
+
+    //sets the size of every node under and including the given one, returning it
+    private int updateSizes(int node) {
+        if (node == 0) {
+            return 0;
+        }
+        sizes[node] = 1 + updateSizes(lefts[node]) + updateSizes(rights[node]);
+        return sizes[node];
+    }
+
+    private int update(int node) {
+        sizes[node] = 1 + sizes[lefts[node]] + sizes[rights[node]];
+        return node;
+    }
+
+    //splits a tree into the keys smaller than the given one and the rest, left in splitLeft and splitRight
+    private void split(int node, long key) {
+        if (node == 0) {
+            splitLeft = 0;
+            splitRight = 0;
+            return;
+        }
+        if (keys[node] < key) {
+            split(rights[node], key);
+            rights[node] = splitLeft;
+            splitLeft = update(node);
+        } else {
+            split(lefts[node], key);
+            lefts[node] = splitRight;
+            splitRight = update(node);
+        }
+    }
+
+    //joins two trees where every key of the first is smaller than every key of the second
+    private int merge(int left, int right) {
+        if (left == 0) {
+            return right;
+        }
+        if (right == 0) {
+            return left;
+        }
+        if (priorities[left] > priorities[right]) {
+            rights[left] = merge(rights[left], right);
+            return update(left);
+        }
+        lefts[right] = merge(left, lefts[right]);
+        return update(right);
+    }
+
+    private int remove(int node, long key) {
+        if (key == keys[node]) {
+            int merged = merge(lefts[node], rights[node]);
+            release(node);
+            return merged;
+        }
+        if (key < keys[node]) {
+            lefts[node] = remove(lefts[node], key);
+        } else {
+            rights[node] = remove(rights[node], key);
+        }
+        return update(node);
+    }
+}
@@ -0,0 +1,39 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * copies one page out of a ranking, so a screen showing the top 10 doesn't copy the
+ * whole field. a page starts at an offset into the ranking and holds up to a limit of
+ * entries; a page past the end of the ranking is empty
+ */
+final class Page {
+
+    private Page() {
+    }
+
+    static int[] of(int[] ranking, int offset, int limit) {
+        check(offset, limit);
+        return Arrays.copyOfRange(ranking, start(ranking.length, offset), end(ranking.length, offset, limit));
+    }
+
+    static <T> T[] of(T[] ranking, int offset, int limit) {
+        check(offset, limit);
+        return Arrays.copyOfRange(ranking, start(ranking.length, offset), end(ranking.length, offset, limit));
+    }
+
+    private static void check(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit can't be negative, got " + offset + " and " + limit + ".");
+        }
+    }
+
+    private static int start(int length, int offset) {
+        return Math.min(offset, length);
+    }
+
+    //in long, since offset + limit can go past Integer.MAX_VALUE
+    private static int end(int length, int offset, int limit) {
+        return (int) Math.min((long) offset + limit, length);
+    }
+}
@@ -1,28 +1,59 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Race implements Serializable {
 	/**
 	 * this class is used to create races, uses getters and setters and is serializable 
 	 */
-    public static int availableId = 1;
+    private static final long serialVersionUID = 5028111200683712242L;
+
+    //the next ID to hand out, shared by every portal. it is atomic, so handing out IDs,
+    //saving the counter and resetting it on erase or load can never interleave badly
+    private static final AtomicInteger availableId = new AtomicInteger(1);
+
+    private static int nextId() {
+        return availableId.getAndIncrement();
+    }
+
+    static int getAvailableId() {
+        return availableId.get();
+    }
+
+    //used when the portal is erased or loaded
+    static void setAvailableId(int id) {
+        availableId.set(id);
+    }
 
     private int id;
     private String name;
     private String description;
 
     private List<Stage> stageList;
+    private Map<String, Stage> stageNames;
+    private transient ClassificationEngine classificationEngine;
+    //the last classifications handed out, with the stage versions they were worked out from
+    private transient volatile PublishedClassification published;
 
     public Race(String name, String description) {
-        this.id = availableId;
-        availableId += 1;
+        this(nextId(), name, description);
+    }
+
+    //makes a race with an ID it had before, used when loading
+    Race(int id, String name, String description) {
+        this.id = id;
 
         this.name = name;
         this.description = description;
         stageList = new ArrayList<>();
+        stageNames = new HashMap<>();
     }
 
     public int getId() {
@@ -87,19 +118,114 @@ public class Race implements Serializable {
     }
 
     public Stage getStage(String stageName) {
+        return stageNames.get(stageName);
+    }
+
+    public synchronized void add(Stage stage) {
+        stageList.add(stage);
+        stageNames.put(stage.getStageName(), stage);
+        published = null;
+    }
+
+    public synchronized void remove(Stage stage) {
+        if (stageList.remove(stage)) {
+            stageNames.remove(stage.getStageName());
+            if (classificationEngine != null) {
+                classificationEngine.removeStage(stage);
+            }
+            published = null;
+        }
+    }
+
+    //true if every stage has a result, checked under the race's lock so no stage is added or removed meanwhile
+    synchronized boolean hasResultsInEveryStage() {
         for (Stage stage : stageList) {
-            if (stage.getStageName().equals(stageName)) {
-                return stage;
+            if (stage.hasNoResult()) {
+                return false;
             }
         }
-        return null;
+        return true;
     }
 
-    public void add(Stage stage) {
-        stageList.add(stage);
+    //returns the race classifications, brought up to date with any stage that changed.
+    //while no stage has changed every reader gets the same published classifications without locking
+    RaceClassification getClassification() {
+        PublishedClassification snapshot = published;
+        if (snapshot != null && snapshot.isCurrent()) {
+            return snapshot.classification;
+        }
+        return refreshClassification();
     }
 
-    public void remove(Stage stage) {
-        stageList.remove(stage);
+    //a rider's position in a classification counting from 0, or -1 if the rider isn't in it.
+    //these ask the engine's ordering directly, after bringing it up to date, rather than building the arrays
+    synchronized int getPosition(ClassificationType type, int riderId) {
+        refreshClassification();
+        return classificationEngine.getPosition(type, riderId);
+    }
+
+    //the rider at a position in a classification counting from 0, or -1 if there is nobody there
+    synchronized int getRiderAt(ClassificationType type, int position) {
+        refreshClassification();
+        return classificationEngine.getRiderAt(type, position);
+    }
+
+    //how many seconds a rider is behind the general classification leader, or -1 if the rider isn't in it
+    synchronized int getSecondsBehindLeader(int riderId) {
+        refreshClassification();
+        return classificationEngine.getSecondsBehindLeader(riderId);
+    }
+
+    private synchronized RaceClassification refreshClassification() {
+        PublishedClassification snapshot = published;
+        if (snapshot != null && snapshot.isCurrent()) {
+            return snapshot.classification;
+        }
+        if (classificationEngine == null) {
+            classificationEngine = new ClassificationEngine();
+        }
+        classificationEngine.update(stageList);
+
+        Stage[] stages = stageList.toArray(new Stage[0]);
+        long[] versions = new long[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            versions[i] = classificationEngine.getVersion(stages[i]);
+        }
+        snapshot = new PublishedClassification(classificationEngine.getClassification(), stages, versions);
+        published = snapshot;
+        return snapshot.classification;
+    }
+
+    //races saved before stages could be looked up by name have no map of names, so it is made here
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (stageNames == null) {
+            stageNames = new HashMap<>();
+            for (Stage stage : stageList) {
+                stageNames.put(stage.getStageName(), stage);
+            }
+        }
+    }
+
+    private static final class PublishedClassification {
+        private final RaceClassification classification;
+        private final Stage[] stages;
+        private final long[] versions;
+
+        PublishedClassification(RaceClassification classification, Stage[] stages, long[] versions) {
+            this.classification = classification;
+            this.stages = stages;
+            this.versions = versions;
+        }
+
+        //true while none of the stages has changed since
+        boolean isCurrent() {
+            for (int i = 0; i < stages.length; i++) {
+                if (stages[i].getResultsVersion() != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
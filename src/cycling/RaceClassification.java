@@ -0,0 +1,72 @@
+package cycling;
+
+/**
+ * the general, points and mountain classifications of a race, worked out together.
+ * the times and points are listed in general classification order
+ */
+class RaceClassification {
+
+    private final int[] generalClassificationIds;
+    private final int[] generalClassificationSeconds;
+    private final int[] points;
+    private final int[] mountainPoints;
+    private final int[] pointsClassificationIds;
+    private final int[] mountainClassificationIds;
+
+    RaceClassification(int[] generalClassificationIds, int[] generalClassificationSeconds, int[] points,
+                       int[] mountainPoints, int[] pointsClassificationIds, int[] mountainClassificationIds) {
+        this.generalClassificationIds = generalClassificationIds;
+        this.generalClassificationSeconds = generalClassificationSeconds;
+        this.points = points;
+        this.mountainPoints = mountainPoints;
+        this.pointsClassificationIds = pointsClassificationIds;
+        this.mountainClassificationIds = mountainClassificationIds;
+    }
+
+    //rider IDs by total adjusted elapsed time, least first
+    int[] getGeneralClassificationIds() {
+        return generalClassificationIds.clone();
+    }
+
+    //one page of getGeneralClassificationIds, see Page
+    int[] getGeneralClassificationIds(int offset, int limit) {
+        return Page.of(generalClassificationIds, offset, limit);
+    }
+
+    //total adjusted elapsed seconds, matching getGeneralClassificationIds
+    int[] getGeneralClassificationSeconds() {
+        return generalClassificationSeconds.clone();
+    }
+
+    int[] getGeneralClassificationSeconds(int offset, int limit) {
+        return Page.of(generalClassificationSeconds, offset, limit);
+    }
+
+    //total points, matching getGeneralClassificationIds
+    int[] getPoints() {
+        return points.clone();
+    }
+
+    //total mountain points, matching getGeneralClassificationIds
+    int[] getMountainPoints() {
+        return mountainPoints.clone();
+    }
+
+    //rider IDs by total points, most first
+    int[] getPointsClassificationIds() {
+        return pointsClassificationIds.clone();
+    }
+
+    int[] getPointsClassificationIds(int offset, int limit) {
+        return Page.of(pointsClassificationIds, offset, limit);
+    }
+
+    //rider IDs by total mountain points, most first
+    int[] getMountainClassificationIds() {
+        return mountainClassificationIds.clone();
+    }
+
+    int[] getMountainClassificationIds(int offset, int limit) {
+        return Page.of(mountainClassificationIds, offset, limit);
+    }
+}
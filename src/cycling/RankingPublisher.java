@@ -0,0 +1,202 @@
+package cycling;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * publishes a ranking of a stage or a race to any number of subscribers.
+ * when results change the portal calls changed(), which only schedules one recomputation
+ * on the executor, so a burst of changes is worked out once however many subscribers there
+ * are. every subscriber is then sent the newest ranking as soon as it has demand for one;
+ * rankings it had no demand for are skipped rather than queued, so a slow subscriber only
+ * ever has one update waiting
+ */
+class RankingPublisher implements Flow.Publisher<RankingUpdate> {
+
+    //one version of the ranking
+    private static final class Ranking {
+        private final long version;
+        private final int[] ids;
+
+        Ranking(long version, int[] ids) {
+            this.version = version;
+            this.ids = ids;
+        }
+    }
+
+    private final Supplier<int[]> source;
+    private final Executor executor;
+    private final List<RankingSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean recomputeScheduled = new AtomicBoolean();
+    private volatile Ranking latest;
+    private volatile boolean closed;
+    private long version;
+
+    RankingPublisher(Supplier<int[]> source, Executor executor) {
+        this.source = source;
+        this.executor = executor;
+    }
+
+    public void subscribe(Flow.Subscriber<? super RankingUpdate> subscriber) {
+        Objects.requireNonNull(subscriber);
+        RankingSubscription subscription = new RankingSubscription(subscriber);
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.complete();
+        } else {
+            // the first subscriber needs the current ranking, the others already have it
+            changed();
+            subscription.signal();
+        }
+    }
+
+    //lets the publisher know the ranking may have changed
+    void changed() {
+        if (!closed && !subscriptions.isEmpty() && recomputeScheduled.compareAndSet(false, true)) {
+            executor.execute(this::recompute);
+        }
+    }
+
+    //completes every subscription, used when the stage or race is removed
+    void close() {
+        closed = true;
+        for (RankingSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    private synchronized void recompute() {
+        // cleared first, so a change made while this runs schedules another recomputation
+        recomputeScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        int[] ids = source.get();
+        Ranking current = latest;
+        if (current != null && Arrays.equals(current.ids, ids)) {
+            // nothing moved, so nobody needs to hear about it
+            return;
+        }
+        latest = new Ranking(++version, ids);
+        for (RankingSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    //the riders who joined, left or moved between two rankings
+    private static int[] changedRiders(Ranking before, Ranking after) {
+        if (before == null) {
+            return after.ids.clone();
+        }
+        Map<Integer, Integer> positions = new HashMap<>();
+        for (int i = 0; i < before.ids.length; i++) {
+            positions.put(before.ids[i], i);
+        }
+        int[] changed = new int[before.ids.length + after.ids.length];
+        int count = 0;
+        for (int i = 0; i < after.ids.length; i++) {
+            Integer position = positions.remove(after.ids[i]);
+            if (position == null || position != i) {
+                changed[count++] = after.ids[i];
+            }
+        }
+        // whoever is left was in the ranking before and isn't now
+        for (int riderId : positions.keySet()) {
+            changed[count++] = riderId;
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    //sends one subscriber its updates, one signal at a time on the executor
+    private final class RankingSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super RankingUpdate> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        //how many times it was signalled while delivering, so only one thread delivers at a time
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+        //only touched by the delivering thread
+        private boolean subscribed;
+        private Ranking delivered;
+
+        RankingSubscription(Flow.Subscriber<? super RankingUpdate> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("the number of updates requested must be positive, not " + n + ".");
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            signal();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void complete() {
+            completed = true;
+            signal();
+        }
+
+        void signal() {
+            if (pendingSignals.getAndIncrement() == 0) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        private void deliver() {
+            int signals = 1;
+            do {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                try {
+                    deliverLatest();
+                } catch (RuntimeException e) {
+                    // a subscriber that throws is dropped, as the Flow rules allow
+                    cancel();
+                }
+                signals = pendingSignals.addAndGet(-signals);
+            } while (signals != 0);
+        }
+
+        private void deliverLatest() {
+            if (cancelled) {
+                return;
+            }
+            if (error != null) {
+                cancel();
+                subscriber.onError(error);
+                return;
+            }
+            Ranking current = latest;
+            if (current != null && current != delivered && demand.get() > 0) {
+                RankingUpdate update = new RankingUpdate(current.version, current.ids, changedRiders(delivered, current));
+                delivered = current;
+                demand.decrementAndGet();
+                subscriber.onNext(update);
+            }
+            if (completed && !cancelled) {
+                cancel();
+                subscriber.onComplete();
+            }
+        }
+    }
+}
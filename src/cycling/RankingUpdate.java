@@ -0,0 +1,35 @@
+package cycling;
+
+/**
+ * RankingUpdate is what a ranking publisher sends its subscribers: the ranking as it
+ * is now, and the riders whose place in it changed since the update that subscriber
+ * got before. Updates a subscriber had no demand for are merged into the next one,
+ * so the changed riders are always counted from the last update actually delivered.
+ */
+public class RankingUpdate {
+
+    private final long version;
+    private final int[] rankedIds;
+    private final int[] changedRiderIds;
+
+    RankingUpdate(long version, int[] rankedIds, int[] changedRiderIds) {
+        this.version = version;
+        this.rankedIds = rankedIds;
+        this.changedRiderIds = changedRiderIds;
+    }
+
+    //goes up by at least one with every change of the ranking
+    public long getVersion() {
+        return version;
+    }
+
+    //the riders' IDs in ranking order, first place first
+    public int[] getRankedIds() {
+        return rankedIds.clone();
+    }
+
+    //the riders who joined, left or moved in the ranking since the previous update, in no particular order
+    public int[] getChangedRiderIds() {
+        return changedRiderIds.clone();
+    }
+}
@@ -1,20 +1,38 @@
 package cycling;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Rider implements Serializable {
 	/**
 	 * this class is used for the creation of a rider ID and is serializable 
 	 */
-    public static int availableId = 1;
+    private static final long serialVersionUID = 3359238899380547945L;
+    private static final AtomicInteger availableId = new AtomicInteger(1);
+
+    private static int nextId() {
+        return availableId.getAndIncrement();
+    }
+
+    static int getAvailableId() {
+        return availableId.get();
+    }
+
+    //used when the portal is erased or loaded
+    static void setAvailableId(int id) {
+        availableId.set(id);
+    }
 
     private int id;
     private String name;
     private int yearOfBirth;
 
     public Rider(String name, int yearOfBirth) {
-        this.id = availableId;
-        availableId += 1;
+        this(nextId(), name, yearOfBirth);
+    }
+
+    Rider(int id, String name, int yearOfBirth) {
+        this.id = id;
 
         this.name = name;
         this.yearOfBirth = yearOfBirth;
@@ -27,4 +45,8 @@ public class Rider implements Serializable {
     public String getName() {
         return name;
     }
+
+    public int getYearOfBirth() {
+        return yearOfBirth;
+    }
 }
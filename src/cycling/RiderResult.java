@@ -1,39 +1,45 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.time.Duration;
 import java.time.LocalTime;
 
 public class RiderResult implements Serializable {
 	/**
-	 * this class deals with the riders results and calculates the elapsed time for segments
+	 * this class deals with the riders results and calculates the elapsed time for segments.
+	 * the times are kept as whole seconds: the start as a second of the day and every
+	 * checkpoint after it as the seconds since the start, so a stage running past midnight
+	 * still counts forward. LocalTimes are only made when they are asked for
 	 */
-	
+    private static final long serialVersionUID = -660388437511820402L;
+
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
 	//variables which will be used
     private int stageId;
     private int riderId;
-    private LocalTime[] segmentTimes;
-    private LocalTime startTime, finishTime;
-    private int elapsedSeconds;
+    private int startSecond;
+    //seconds from the start to each segment, with the finish last
+    private int[] checkpointSeconds;
 
     public RiderResult(int stageId, int riderId, LocalTime[] localTimes) {
         this.stageId = stageId;
         this.riderId = riderId;
 
-        
-        this.segmentTimes = new LocalTime[localTimes.length - 1];
-        for (int i = 1; i < localTimes.length - 1; i++) {
-            segmentTimes[i - 1] = localTimes[i];
+        this.startSecond = localTimes[0].toSecondOfDay();
+        this.checkpointSeconds = new int[localTimes.length - 1];
+        for (int i = 1; i < localTimes.length; i++) {
+            checkpointSeconds[i - 1] = secondsSince(startSecond, localTimes[i]);
         }
+    }
 
-        this.startTime = localTimes[0];
-        this.finishTime = localTimes[localTimes.length - 1];
-        this.elapsedSeconds = (int) Math.abs(Duration.between(startTime, finishTime).toSeconds());
-
-        int hour = elapsedSeconds / 3600;
-        int minute = (elapsedSeconds - hour * 3600) / 60;
-        int second = elapsedSeconds - hour * 3600 - minute * 60;
-        segmentTimes[segmentTimes.length - 1] = LocalTime.of(hour, minute, second);
+    //builds a result straight from the seconds, used as a view of a row of a StageResultTable
+    RiderResult(int stageId, int riderId, int startSecond, int[] checkpointSeconds) {
+        this.stageId = stageId;
+        this.riderId = riderId;
+        this.startSecond = startSecond;
+        this.checkpointSeconds = checkpointSeconds;
     }
 
     public int getStageId() {
@@ -44,19 +50,84 @@ public class RiderResult implements Serializable {
         return riderId;
     }
 
+    //returns the time the rider reached each segment followed by the elapsed time
     public LocalTime[] getSegmentTimes() {
+        LocalTime[] segmentTimes = new LocalTime[checkpointSeconds.length];
+        for (int i = 0; i < segmentTimes.length - 1; i++) {
+            segmentTimes[i] = toLocalTime(getSegmentSecond(i));
+        }
+        segmentTimes[segmentTimes.length - 1] = toLocalTime(getElapsedSeconds());
         return segmentTimes;
     }
 
     public LocalTime getStartTime() {
-        return startTime;
+        return toLocalTime(startSecond);
     }
 
     public LocalTime getFinishTime() {
-        return finishTime;
+        return toLocalTime(getFinishSecond());
     }
 
     public int getElapsedSeconds() {
-        return elapsedSeconds;
+        return checkpointSeconds[checkpointSeconds.length - 1];
+    }
+
+    public int getSegmentCount() {
+        return checkpointSeconds.length - 1;
+    }
+
+    //seconds of the day the rider started at
+    public int getStartSecond() {
+        return startSecond;
+    }
+
+    //seconds from the start of the day to reaching a segment, going past a day if the stage crosses midnight
+    public int getSegmentSecond(int segmentIndex) {
+        return startSecond + checkpointSeconds[segmentIndex];
+    }
+
+    //seconds from the start of the day to the finish, going past a day if the stage crosses midnight
+    public int getFinishSecond() {
+        return startSecond + getElapsedSeconds();
+    }
+
+    //seconds from a start to a later time, counting past midnight
+    static int secondsSince(int startSecond, LocalTime time) {
+        return Math.floorMod(time.toSecondOfDay() - startSecond, SECONDS_PER_DAY);
+    }
+
+    static LocalTime toLocalTime(long seconds) {
+        return LocalTime.ofSecondOfDay(Math.floorMod(seconds, SECONDS_PER_DAY));
+    }
+
+    //returns the times at the start, at every segment and at the finish, as they were registered
+    LocalTime[] getCheckpoints() {
+        LocalTime[] checkpoints = new LocalTime[checkpointSeconds.length + 1];
+        checkpoints[0] = getStartTime();
+        for (int i = 0; i < checkpointSeconds.length; i++) {
+            checkpoints[i + 1] = toLocalTime(startSecond + checkpointSeconds[i]);
+        }
+        return checkpoints;
+    }
+
+    //results saved before the times were kept as seconds hold the start and finish as LocalTimes and
+    //the segment times followed by the elapsed time, which are turned into seconds here
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        stageId = fields.get("stageId", 0);
+        riderId = fields.get("riderId", 0);
+        if (fields.getObjectStreamClass().getField("startTime") == null) {
+            startSecond = fields.get("startSecond", 0);
+            checkpointSeconds = (int[]) fields.get("checkpointSeconds", null);
+            return;
+        }
+        LocalTime[] segmentTimes = (LocalTime[]) fields.get("segmentTimes", null);
+        LocalTime finishTime = (LocalTime) fields.get("finishTime", null);
+        startSecond = ((LocalTime) fields.get("startTime", null)).toSecondOfDay();
+        checkpointSeconds = new int[segmentTimes.length];
+        for (int i = 0; i < segmentTimes.length - 1; i++) {
+            checkpointSeconds[i] = secondsSince(startSecond, segmentTimes[i]);
+        }
+        checkpointSeconds[segmentTimes.length - 1] = secondsSince(startSecond, finishTime);
     }
 }
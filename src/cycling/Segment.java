@@ -1,14 +1,29 @@
 package cycling;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Segment implements Serializable {
 	/**
 	 * creates the segment (ID) and is serializable 
 	 */
+    private static final long serialVersionUID = -6431641332694195905L;
 	
 	//variables which will be used
-    public static int availableId = 1;
+    private static final AtomicInteger availableId = new AtomicInteger(1);
+
+    private static int nextId() {
+        return availableId.getAndIncrement();
+    }
+
+    static int getAvailableId() {
+        return availableId.get();
+    }
+
+    //used when the portal is erased or loaded
+    static void setAvailableId(int id) {
+        availableId.set(id);
+    }
 
     private int id;
     private double location;
@@ -24,10 +39,15 @@ public class Segment implements Serializable {
     }
 
     public Segment(double location, SegmentType segmentType) {
-        this.id = availableId;
-        availableId += 1;
+        this(nextId(), location, segmentType, 0, 0);
+    }
+
+    Segment(int id, double location, SegmentType segmentType, double averageGradient, double length) {
+        this.id = id;
         this.location = location;
         this.segmentType = segmentType;
+        this.averageGradient = averageGradient;
+        this.length = length;
     }
 
     public int getId() {
@@ -41,4 +61,12 @@ public class Segment implements Serializable {
     public SegmentType getSegmentType() {
         return segmentType;
     }
+
+    public double getAverageGradient() {
+        return averageGradient;
+    }
+
+    public double getLength() {
+        return length;
+    }
 }
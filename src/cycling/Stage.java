@@ -1,20 +1,44 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Stage implements Serializable {
 	/**
 	 * creates a stage 
 	 */
+    private static final long serialVersionUID = 8273099708787121183L;
 	
 	//variables which will be used
-    public static int availableId = 1;
+    private static final AtomicInteger availableId = new AtomicInteger(1);
+
+    private static int nextId() {
+        return availableId.getAndIncrement();
+    }
+
+    static int getAvailableId() {
+        return availableId.get();
+    }
+
+    //used when the portal is erased or loaded
+    static void setAvailableId(int id) {
+        availableId.set(id);
+    }
 
     private int id;
     private String stageName;
@@ -24,13 +48,52 @@ public class Stage implements Serializable {
     private StageType stageType;
     private String stageState;
 
+    //segments are kept ordered by their location in the stage
     private List<Segment> segmentList;
-    private List<RiderResult> stageResult;
+    private Map<Integer, Integer> segmentPositions;
+    //results kept column by column on the heap, or as records off the heap for very large fields
+    private StageResultStore results;
+    //every rider with a result, stored or still pending; adding to it is how a result is claimed
+    private transient ConcurrentIdSet claimedRiders;
+    //results registered without the stage's lock, moved into the store by the next reader
+    private transient Queue<PendingResult> pendingResults;
+    //checkpoint times of riders still out on the stage, by rider ID; null where a mat hasn't been crossed yet
+    private Map<Integer, LocalTime[]> partialResults;
+    //who reached each segment first so far, one tree per segment position, keyed by the second of the
+    //day the segment was reached packed above the rider ID; kept up to date as results arrive
+    private transient OrderStatisticTree[] segmentLeaderboards;
+
+    //the last rankings worked out from the results, replaced as a whole once a result or segment changes
+    private transient volatile StageRankings rankings;
+    //bumped every time the results or segments change
+    private transient AtomicLong resultsVersion;
+
+    //points for the first 15 riders through an intermediate sprint
+    private static final int[] POINTS_FOR_INTERMEDIATE_SPRINT = {20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1};
+
+    //points for the first 15 riders to finish, by stage type
+    private static final Map<StageType, int[]> POINTS_FOR_STAGE_TYPE = Map.of(
+            StageType.FLAT, new int[]{50, 30, 20, 18, 16, 14, 12, 10, 8, 7, 6, 5, 4, 3, 2},
+            StageType.MEDIUM_MOUNTAIN, new int[]{30, 25, 22, 19, 17, 15, 13, 11, 9, 7, 6, 5, 4, 3, 2},
+            StageType.HIGH_MOUNTAIN, new int[]{20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1},
+            StageType.TT, new int[]{20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1});
+
+    //mountain points for the first 8 riders over a climb, by climb category
+    private static final Map<SegmentType, int[]> POINTS_FOR_CLIMB = Map.of(
+            SegmentType.HC, new int[]{20, 15, 12, 10, 8, 6, 4, 2},
+            SegmentType.C1, new int[]{10, 8, 6, 4, 2, 1, 0, 0},
+            SegmentType.C2, new int[]{5, 3, 2, 1, 0, 0, 0, 0},
+            SegmentType.C3, new int[]{2, 1, 0, 0, 0, 0, 0, 0},
+            SegmentType.C4, new int[]{1, 0, 0, 0, 0, 0, 0, 0});
 
     //creates a stage 
     public Stage(String stageName, String description, double length, LocalDateTime startTime, StageType stageType) {
-        this.id = availableId;
-        availableId += 1;
+        this(nextId(), stageName, description, length, startTime, stageType);
+    }
+
+    //makes a stage with an ID it had before, used when loading
+    Stage(int id, String stageName, String description, double length, LocalDateTime startTime, StageType stageType) {
+        this.id = id;
 
         this.stageName = stageName;
         this.description = description;
@@ -40,7 +103,90 @@ public class Stage implements Serializable {
         this.stageState = "";
 
         this.segmentList = new ArrayList<>();
-        this.stageResult = new ArrayList<>();
+        this.segmentPositions = new HashMap<>();
+        this.results = new StageResultTable();
+        this.partialResults = new HashMap<>();
+        initialiseIngestion();
+    }
+
+    private void initialiseIngestion() {
+        claimedRiders = new ConcurrentIdSet();
+        for (int riderId : results.getRiderIds()) {
+            claimedRiders.add(riderId);
+        }
+        pendingResults = new ConcurrentLinkedQueue<>();
+        resultsVersion = new AtomicLong();
+        rebuildSegmentLeaderboards();
+    }
+
+    //fills the segment leaderboards from scratch, for a new stage, after loading or when the segments change
+    private void rebuildSegmentLeaderboards() {
+        segmentLeaderboards = new OrderStatisticTree[segmentList.size()];
+        int[] riderIds = results.getRiderIds();
+        for (int i = 0; i < segmentLeaderboards.length; i++) {
+            // the keys are sorted and the tree built in one go, much quicker than adding them one by one
+            long[] keys = new long[riderIds.length + partialResults.size()];
+            int[] seconds = results.getCheckpointSecondsOfDay(i);
+            int count = 0;
+            for (int row = 0; row < riderIds.length; row++) {
+                keys[count++] = leaderboardKey(seconds[row], riderIds[row]);
+            }
+            for (Map.Entry<Integer, LocalTime[]> partial : partialResults.entrySet()) {
+                if (partial.getValue()[i + 1] != null) {
+                    keys[count++] = leaderboardKey(partialSecondOfDay(partial.getValue(), i + 1), partial.getKey());
+                }
+            }
+            long[] sorted = Arrays.copyOf(keys, count);
+            Arrays.sort(sorted);
+            segmentLeaderboards[i] = new OrderStatisticTree();
+            segmentLeaderboards[i].build(sorted);
+        }
+    }
+
+    private void placeRowOnLeaderboards(int row, boolean add) {
+        int riderId = results.getRiderId(row);
+        for (int i = 0; i < segmentLeaderboards.length; i++) {
+            long key = leaderboardKey(results.getCheckpointSecondOfDay(row, i), riderId);
+            if (add) {
+                segmentLeaderboards[i].add(key);
+            } else {
+                segmentLeaderboards[i].remove(key);
+            }
+        }
+    }
+
+    private void placePartialOnLeaderboards(int riderId, LocalTime[] checkpoints, boolean add) {
+        for (int i = 0; i < segmentLeaderboards.length; i++) {
+            if (checkpoints[i + 1] == null) {
+                continue;
+            }
+            long key = leaderboardKey(partialSecondOfDay(checkpoints, i + 1), riderId);
+            if (add) {
+                segmentLeaderboards[i].add(key);
+            } else {
+                segmentLeaderboards[i].remove(key);
+            }
+        }
+    }
+
+    //once the start is known a crossing counts forward from it like a stored result does, so it gets the same key
+    private static int partialSecondOfDay(LocalTime[] checkpoints, int checkpointIndex) {
+        if (checkpoints[0] == null) {
+            return checkpoints[checkpointIndex].toSecondOfDay();
+        }
+        int start = checkpoints[0].toSecondOfDay();
+        return start + RiderResult.secondsSince(start, checkpoints[checkpointIndex]);
+    }
+
+    private static long leaderboardKey(int secondOfDay, int riderId) {
+        return ((long) secondOfDay << 32) | riderId;
+    }
+
+    private void removePartial(int riderId) {
+        LocalTime[] checkpoints = partialResults.remove(riderId);
+        if (checkpoints != null) {
+            placePartialOnLeaderboards(riderId, checkpoints, false);
+        }
     }
 
     public int getId() {
@@ -55,6 +201,14 @@ public class Stage implements Serializable {
         return stageName;
     }
 
+    public String getDescription() {
+        return description;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
     public String getStageState() {
         return stageState;
     }
@@ -71,156 +225,444 @@ public class Stage implements Serializable {
         return segmentList;
     }
 
-    public void add(Segment segment) {
-        segmentList.add(segment);
+    //inserts the segment after every segment with a location not greater than its own
+    public synchronized void add(Segment segment) {
+        int position = segmentList.size();
+        while (position > 0 && segmentList.get(position - 1).getLocation() > segment.getLocation()) {
+            position--;
+        }
+        segmentList.add(position, segment);
+        renumberSegmentsFrom(position);
+        rebuildSegmentLeaderboards();
+        invalidateRankings();
     }
 
     public void remove(Segment segment) {
-        segmentList.remove(segment);
+        removeSegment(segment.getId());
+    }
+
+    //removes a segment by its ID and returns it, or null if the stage doesn't have it
+    synchronized Segment removeSegment(int segmentId) {
+        Integer position = segmentPositions.remove(segmentId);
+        if (position == null) {
+            return null;
+        }
+        Segment segment = segmentList.remove((int) position);
+        renumberSegmentsFrom(position);
+        rebuildSegmentLeaderboards();
+        invalidateRankings();
+        return segment;
+    }
+
+    //gets the position of a segment in the stage, or -1 if the stage doesn't have it
+    int getSegmentPosition(int segmentId) {
+        Integer position = segmentPositions.get(segmentId);
+        return position == null ? -1 : position;
+    }
+
+    private void renumberSegmentsFrom(int position) {
+        for (int i = position; i < segmentList.size(); i++) {
+            segmentPositions.put(segmentList.get(i).getId(), i);
+        }
+    }
+
+    //moves the results off the heap, only while the stage has no results
+    synchronized void useOffHeapResults() {
+        drainPendingResults();
+        if (results instanceof StageResultTable && results.isEmpty()) {
+            results = new OffHeapStageResultStore();
+        }
+    }
+
+    synchronized boolean hasOffHeapResults() {
+        return results instanceof OffHeapStageResultStore;
+    }
+
+    //writes every result to the channel as fixed-width records
+    synchronized void writeResults(WritableByteChannel channel) throws IOException {
+        drainPendingResults();
+        results.writeTo(channel);
     }
 
     //checks whether a rider has a result for the stage  
     boolean hasResult(int riderId) {
-        for (int i = 0; i < stageResult.size(); i++) {
-            if (stageResult.get(i).getRiderId() == riderId) {
-                return true;
+        return claimedRiders.contains(riderId);
+    }
+
+    //adds a result to the stage results, or returns false if the rider already has one.
+    //many threads can add at once: the rider is claimed with one atomic add to claimedRiders,
+    //so exactly one result per rider gets in, and the times wait in a queue for the next reader
+    boolean addResult(int stageId, int riderId, LocalTime[] localTimes) {
+        if (!claimedRiders.add(riderId)) {
+            return false;
+        }
+        pendingResults.add(new PendingResult(riderId, localTimes.clone()));
+        invalidateRankings();
+        return true;
+    }
+
+    //adds the results of many riders at once, rows matching riderIds by index. either all of them get in,
+    //or none do and the index of the first rider that already has a result is returned; -1 means all got in
+    synchronized int addResults(int[] riderIds, LocalTime[][] checkpoints) {
+        int duplicate = claimAll(riderIds);
+        if (duplicate >= 0) {
+            return duplicate;
+        }
+
+        drainPendingResults();
+        // a batch bigger than what is there already, such as a whole stage or a load, is quicker
+        // to put on the leaderboards by building them again than by adding every row
+        boolean rebuildLeaderboards = riderIds.length > results.size();
+        results.ensureCapacity(results.size() + riderIds.length);
+        for (int i = 0; i < riderIds.length; i++) {
+            removePartial(riderIds[i]);
+            results.add(riderIds[i], checkpoints[i]);
+            if (!rebuildLeaderboards) {
+                placeRowOnLeaderboards(results.size() - 1, true);
             }
         }
-        return false;
+        if (rebuildLeaderboards) {
+            rebuildSegmentLeaderboards();
+        }
+        // the rankings are dropped once for the whole batch
+        invalidateRankings();
+        return -1;
     }
 
-    //adds a result to the stage results 
-    void addResult(int stageId, int riderId, LocalTime[] localTimes) {
+    //adds the results of many riders given column by column, as a saved file holds them: the start seconds
+    //of the day and, for every checkpoint, the seconds from the start. returns what addResults does
+    synchronized int addResultColumns(int[] riderIds, int[] startSeconds, int[][] checkpointSeconds) {
+        int duplicate = claimAll(riderIds);
+        if (duplicate >= 0) {
+            return duplicate;
+        }
+
+        drainPendingResults();
+        for (int riderId : riderIds) {
+            removePartial(riderId);
+        }
+        results.addRows(riderIds, startSeconds, checkpointSeconds);
+        rebuildSegmentLeaderboards();
+        invalidateRankings();
+        return -1;
+    }
+
+    //claims every rider, or none of them if one already has a result, returning the index of that rider or -1
+    private int claimAll(int[] riderIds) {
+        for (int i = 0; i < riderIds.length; i++) {
+            if (!claimedRiders.add(riderIds[i])) {
+                for (int j = 0; j < i; j++) {
+                    claimedRiders.remove(riderIds[j]);
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //records one checkpoint of a rider: 0 is the start, 1 to n the segments in the order of getSegmentList
+    //and n+1 the finish. returns true once the last missing checkpoint is in and the result is complete
+    synchronized boolean recordCheckpoint(int stageId, int riderId, int checkpointIndex, LocalTime time)
+            throws DuplicatedResultException {
         if (hasResult(riderId)) {
-            return;
+            throw new DuplicatedResultException("rider has already a result for the stage.");
+        }
+        LocalTime[] checkpoints = partialResults.get(riderId);
+        if (checkpoints == null) {
+            checkpoints = new LocalTime[segmentList.size() + 2];
+            partialResults.put(riderId, checkpoints);
+        }
+        if (checkpoints[checkpointIndex] != null) {
+            throw new DuplicatedResultException("rider has already crossed checkpoint " + checkpointIndex + " in the stage.");
+        }
+        // a start coming in late changes the keys of crossings already on the leaderboards
+        placePartialOnLeaderboards(riderId, checkpoints, false);
+        checkpoints[checkpointIndex] = time;
+        placePartialOnLeaderboards(riderId, checkpoints, true);
+
+        for (LocalTime checkpoint : checkpoints) {
+            if (checkpoint == null) {
+                return false;
+            }
+        }
+        // the partial result stays until the queued whole result is moved into the store
+        if (!addResult(stageId, riderId, checkpoints)) {
+            throw new DuplicatedResultException("rider has already a result for the stage.");
         }
-        RiderResult riderResult = new RiderResult(stageId, riderId, localTimes);
-        stageResult.add(riderResult);
+        return true;
     }
 
-    //gets the result for a rider from a stage 
-    RiderResult getResult(int riderId) {
-        for (int i = 0; i < stageResult.size(); i++) {
-            RiderResult riderResult = stageResult.get(i);
-            if (riderResult.getRiderId() == riderId) {
-                return riderResult;
+    //returns the riders who have some checkpoints but no complete result yet
+    synchronized int[] getPartialResultIds() {
+        drainPendingResults();
+        int[] ids = new int[partialResults.size()];
+        int i = 0;
+        for (int riderId : partialResults.keySet()) {
+            ids[i++] = riderId;
+        }
+        return ids;
+    }
+
+    //returns a copy of a rider's checkpoints so far, null where a mat hasn't been crossed, or null if the rider has none
+    synchronized LocalTime[] getPartialResult(int riderId) {
+        drainPendingResults();
+        LocalTime[] checkpoints = partialResults.get(riderId);
+        return checkpoints == null ? null : checkpoints.clone();
+    }
+
+    //returns the results column by column, for saving: the rider IDs, the start seconds of the day,
+    //then for every segment and the finish the seconds from the start, all in row order
+    synchronized int[][] getResultColumns() {
+        drainPendingResults();
+        int checkpointCount = segmentList.size() + 1;
+        int[][] columns = new int[checkpointCount + 2][];
+        columns[0] = results.getRiderIds();
+        columns[1] = results.getStartSeconds();
+        for (int checkpoint = 0; checkpoint < checkpointCount; checkpoint++) {
+            int[] seconds = results.getCheckpointSecondsOfDay(checkpoint);
+            for (int row = 0; row < seconds.length; row++) {
+                seconds[row] -= columns[1][row];
             }
+            columns[checkpoint + 2] = seconds;
+        }
+        return columns;
+    }
+
+    //returns everyone who has reached a checkpoint so far, complete results and riders still out alike,
+    //fastest from their start first. each entry packs the elapsed seconds above the rider ID
+    synchronized long[] getProvisionalStandings(int checkpointIndex) {
+        drainPendingResults();
+        int size = results.size();
+        long[] standings = new long[size + partialResults.size()];
+        int count = 0;
+
+        if (size > 0) {
+            int[] ids = results.getRiderIds();
+            int[] reached = checkpointIndex == 0 ? results.getStartSeconds()
+                    : results.getCheckpointSecondsOfDay(checkpointIndex - 1);
+            int[] startSeconds = results.getStartSeconds();
+            for (int row = 0; row < size; row++) {
+                standings[count++] = ((long) (reached[row] - startSeconds[row]) << 32) | ids[row];
+            }
+        }
+        for (Map.Entry<Integer, LocalTime[]> partial : partialResults.entrySet()) {
+            LocalTime[] checkpoints = partial.getValue();
+            if (checkpoints[0] == null || checkpoints[checkpointIndex] == null) {
+                continue;
+            }
+            int elapsed = RiderResult.secondsSince(checkpoints[0].toSecondOfDay(), checkpoints[checkpointIndex]);
+            standings[count++] = ((long) elapsed << 32) | partial.getKey();
+        }
+
+        standings = Arrays.copyOf(standings, count);
+        Arrays.sort(standings);
+        return standings;
+    }
+
+    //moves the queued results into the store, called holding the stage's lock
+    private void drainPendingResults() {
+        PendingResult pending;
+        while ((pending = pendingResults.poll()) != null) {
+            // a whole result replaces whatever was timed mat by mat for the rider
+            removePartial(pending.riderId);
+            results.add(pending.riderId, pending.checkpoints);
+            placeRowOnLeaderboards(results.size() - 1, true);
+        }
+    }
+
+    //returns up to n riders in the order they reached the segment at a position, first one first.
+    //each entry packs the second of the day they reached it above the rider ID
+    synchronized long[] getSegmentLeaders(int segmentPosition, int n) {
+        drainPendingResults();
+        return segmentLeaderboards[segmentPosition].first(n);
+    }
+
+    //returns how many riders reached the segment at a position before the given rider, or -1 if the rider hasn't reached it
+    synchronized int getPositionAtSegment(int segmentPosition, int riderId) {
+        drainPendingResults();
+        long key;
+        int row = results.rowOf(riderId);
+        LocalTime[] checkpoints = partialResults.get(riderId);
+        if (row >= 0) {
+            key = leaderboardKey(results.getCheckpointSecondOfDay(row, segmentPosition), riderId);
+        } else if (checkpoints != null && checkpoints[segmentPosition + 1] != null) {
+            key = leaderboardKey(partialSecondOfDay(checkpoints, segmentPosition + 1), riderId);
+        } else {
+            return -1;
+        }
+        return segmentLeaderboards[segmentPosition].indexOf(key);
+    }
+
+    //gets the result for a rider from a stage, as a view of the rider's row
+    synchronized RiderResult getResult(int riderId) {
+        drainPendingResults();
+        int row = results.rowOf(riderId);
+        if (row < 0) {
+            return null;
         }
-        return null;
+        return results.getResult(id, row);
     }
 
     public void removeResult(RiderResult result) {
-        stageResult.remove(result);
+        if (result != null) {
+            removeResult(result.getRiderId());
+        }
+    }
+
+    //removes a rider's result by moving the last row into its place
+    synchronized void removeResult(int riderId) {
+        drainPendingResults();
+        removePartial(riderId);
+        int row = results.rowOf(riderId);
+        if (row >= 0) {
+            placeRowOnLeaderboards(row, false);
+            results.remove(riderId);
+            claimedRiders.remove(riderId);
+            invalidateRankings();
+        }
     }
 
     public boolean hasNoResult() {
-        return stageResult.isEmpty();
+        return claimedRiders.isEmpty();
     }
 
     //returns the riders ranking in order 
     public int[] getRiderRanks() {
+        return getRankings().getRankedIds().clone();
+    }
 
-        stageResult.sort((a, b) -> {
-            if (a.getElapsedSeconds() < b.getElapsedSeconds()) return -1;
-            if (a.getElapsedSeconds() > b.getElapsedSeconds()) return +1;
-            return 0;
-        });
-
-        int[] ids = new int[stageResult.size()];
-        for (int i = 0; i < ids.length; i++) {
-            ids[i] = stageResult.get(i).getRiderId();
-        }
-        return ids;
+    //returns one page of getRiderRanks, copying only that page
+    public int[] getRiderRanks(int offset, int limit) {
+        return Page.of(getRankings().getRankedIds(), offset, limit);
     }
 
     //gets all the IDs for the stages created 
-    public int[] getAllIds() {
-        int[] ids = new int[stageResult.size()];
-        for (int i = 0; i < ids.length; i++) {
-            ids[i] = stageResult.get(i).getRiderId();
-        }
-        return ids;
+    public synchronized int[] getAllIds() {
+        drainPendingResults();
+        return results.getRiderIds();
+    }
+
+    //returns the rider IDs ordered by finish time, matching getAdjustedElapsedTimes and getRidersMountainPointsInStage
+    public int[] getFinishOrderIds() {
+        return getRankings().getFinishOrderIds().clone();
     }
 
     //returns the LocalTimes array for all the adjusted elapsed times 
     public LocalTime[] getAdjustedElapsedTimes() {
-        sortResultsByFinishTime();
-
-        LocalTime[] localTimes = new LocalTime[stageResult.size()];
-        localTimes[0] = stageResult.get(0).getFinishTime();
-        for (int i = 1; i < localTimes.length; i++) {
-            int i_1_second = stageResult.get(i - 1).getFinishTime().toSecondOfDay();
-            int i_second = stageResult.get(i).getFinishTime().toSecondOfDay();
-            if (i_1_second + 1 == i_second) {
-                localTimes[i] = localTimes[i - 1];
-            } else {
-                localTimes[i] = stageResult.get(i).getFinishTime();
-            }
-        }
+        return toLocalTimes(getRankings().getAdjustedElapsedSeconds());
+    }
 
-        return localTimes;
+    public LocalTime[] getAdjustedElapsedTimes(int offset, int limit) {
+        return toLocalTimes(Page.of(getRankings().getAdjustedElapsedSeconds(), offset, limit));
     }
 
-    //sorts the results bt fnish time
-    private void sortResultsByFinishTime() {
-        stageResult.sort((a, b) -> {
-            int secondA = a.getFinishTime().toSecondOfDay();
-            int secondB = b.getFinishTime().toSecondOfDay();
-            if (secondA < secondB) return -1;
-            if (secondA > secondB) return +1;
-            return 0;
-        });
+    //the rankings keep times as seconds, and LocalTimes are only made for what is asked for
+    private static LocalTime[] toLocalTimes(int[] seconds) {
+        LocalTime[] times = new LocalTime[seconds.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = RiderResult.toLocalTime(seconds[i]);
+        }
+        return times;
     }
 
+    //returns the adjusted elapsed time of a rider, or null if the rider has no result
     public LocalTime getAdjustedElapsedTime(int riderId) {
         // we may think that all start time is same
         // finish - start is same as comparing with finish
         // but let's try with finish time first as suggested
-        sortResultsByFinishTime();
-
-        int i = 0;
-        for (; i < stageResult.size(); i++) {
-            if (stageResult.get(i).getRiderId() == riderId) {
-                break;
-            }
-        }
-
-        if (i == stageResult.size()) {
+        AdjustedElapsedTimes adjustedTimes = getRankings().getAdjustedTimes();
+        if (!adjustedTimes.hasRider(riderId)) {
             return null;
         }
+        return RiderResult.toLocalTime(adjustedTimes.getAdjustedSeconds(riderId));
+    }
 
-        //        i
-        //1 3 4 5 9
-        //0 1 2 3 4
-        LocalTime localTime = null;
-        for (int j = i; j >= 1; j--) {
-            int aj = stageResult.get(j).getFinishTime().toSecondOfDay();
-            int aj_1 = stageResult.get(j - 1).getFinishTime().toSecondOfDay();
-            if (aj_1 + 1 == aj) {
-                continue;
-            }
-            localTime = stageResult.get(j).getFinishTime();
-            break;
-        }
-        return localTime;
+    //returns the riders of each group finishing together, first group first
+    public int[][] getFinishingGroups() {
+        return getRankings().getAdjustedTimes().getGroups();
     }
 
-    public List<RiderResult> getStageResult() {
+    //returns a view of every result, in row order
+    public synchronized List<RiderResult> getStageResult() {
+        drainPendingResults();
+        List<RiderResult> stageResult = new ArrayList<>(results.size());
+        for (int row = 0; row < results.size(); row++) {
+            stageResult.add(results.getResult(id, row));
+        }
         return stageResult;
     }
 
-    //returns an integer array of the riders points in a stage 
+    //returns an integer array of the riders points in a stage, in the order of getRiderRanks
     public int[] getRidersPointsInStage() {
+        return getRankings().getRiderPoints().clone();
+    }
+
+    //returns the riders mountain points in a stage, in the order of getFinishOrderIds
+    public int[] getRidersMountainPointsInStage() {
+        return getRankings().getRiderMountainPoints().clone();
+    }
+
+    long getResultsVersion() {
+        return resultsVersion.get();
+    }
+
+    //returns the rankings of the current results; reading never changes anything shared,
+    //so only the first read after a change has to wait for the rankings to be worked out
+    StageRankings getRankings() {
+        StageRankings snapshot = rankings;
+        if (snapshot != null && snapshot.getVersion() == resultsVersion.get()) {
+            return snapshot;
+        }
+        return refreshRankings();
+    }
+
+    //drops the published rankings so they are worked out again on the next query
+    private void invalidateRankings() {
+        resultsVersion.incrementAndGet();
+    }
 
-        Map<Integer, Integer> riderPoints = new HashMap<>();
-        // init points to 0
-        for (RiderResult result : stageResult) {
-            riderPoints.put(result.getRiderId(), 0);
+    private synchronized StageRankings refreshRankings() {
+        // the version is read before draining, so a result queued after this point makes the snapshot stale
+        long version = resultsVersion.get();
+        StageRankings snapshot = rankings;
+        if (snapshot != null && snapshot.getVersion() == version) {
+            // another reader got here first
+            return snapshot;
         }
+        drainPendingResults();
+
+        int size = results.size();
+        int[] ids = results.getRiderIds();
+        int[] startSeconds = results.getStartSeconds();
+        int[] elapsedSeconds = results.getElapsedSeconds();
+        int[] finishSeconds = new int[size];
+        // elapsed time and row packed together, so sorting the longs ranks the riders
+        long[] byElapsed = new long[size];
+        for (int i = 0; i < size; i++) {
+            finishSeconds[i] = startSeconds[i] + elapsedSeconds[i];
+            byElapsed[i] = ((long) elapsedSeconds[i] << 32) | i;
+        }
+        Arrays.sort(byElapsed);
+        int[] rankedIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            rankedIds[i] = ids[(int) byElapsed[i]];
+        }
+
+        // one sort by finish time and one scan for the groups gives every adjusted time
+        AdjustedElapsedTimes adjustedTimes = new AdjustedElapsedTimes(ids, startSeconds, finishSeconds,
+                stageType == StageType.TT);
+        int[] finishOrderIds = adjustedTimes.getRiderIds();
 
-        // for first 15 riders if any
-        var pointsForIntermediateSprint = new int[]{20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1};
-        int totalRidersToGivePoints = Math.min(15, stageResult.size());
+        snapshot = new StageRankings(version, rankedIds, adjustedTimes, computePoints(rankedIds),
+                computeMountainPoints(finishOrderIds));
+        rankings = snapshot;
+        return snapshot;
+    }
+
+    private int[] computePoints(int[] rankedIds) {
+
+        // points are added up by the rider's row in the results
+        int[] riderPoints = new int[results.size()];
 
         for (int i = 0; i < segmentList.size(); i++) {
             Segment segment = segmentList.get(i);
@@ -230,84 +672,26 @@ public class Stage implements Serializable {
                 continue;
             }
 
-            // for segment i sort the stageResult first based on segmentTimes.get(i).toSecondsOfDay()
-            sortBySegmentIndex(i);
-
-            for (int j = 0; j < totalRidersToGivePoints; j++) {
-                RiderResult riderResult = stageResult.get(j);
-                int riderId = riderResult.getRiderId();
-                riderPoints.put(riderId, riderPoints.get(riderId) + pointsForIntermediateSprint[j]);
+            // only the first 15 riders through segment i get points, so just pick those out
+            int[] first = TopK.smallest(segmentSeconds(i), POINTS_FOR_INTERMEDIATE_SPRINT.length);
+            for (int j = 0; j < first.length; j++) {
+                riderPoints[first[j]] += POINTS_FOR_INTERMEDIATE_SPRINT[j];
             }
         }
 
         // now allocate points based on who finishes early
-        stageResult.sort((a, b) -> {
-            if (a.getElapsedSeconds() < b.getElapsedSeconds()) return -1;
-            if (a.getElapsedSeconds() > b.getElapsedSeconds()) return +1;
-            return 0;
-        });
-
-        Map<StageType, int[]> points = new HashMap<>();
-        points.put(StageType.FLAT, new int[]{50, 30, 20, 18, 16, 14, 12, 10, 8, 7, 6, 5, 4, 3, 2});
-        points.put(StageType.MEDIUM_MOUNTAIN, new int[]{30, 25, 22, 19, 17, 15, 13, 11, 9, 7, 6, 5, 4, 3, 2});
-        points.put(StageType.HIGH_MOUNTAIN, new int[]{20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1});
-        points.put(StageType.TT, new int[]{20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1});
-
-        // for first 15 riders if any
-        int[] pointsForThisStageType = points.get(stageType);
-
+        int[] pointsForThisStageType = POINTS_FOR_STAGE_TYPE.get(stageType);
+        int totalRidersToGivePoints = Math.min(pointsForThisStageType.length, rankedIds.length);
         for (int j = 0; j < totalRidersToGivePoints; j++) {
-            RiderResult riderResult = stageResult.get(j);
-            int riderId = riderResult.getRiderId();
-            riderPoints.put(riderId, riderPoints.get(riderId) + pointsForThisStageType[j]);
-        }
-
-        int[] ans = new int[stageResult.size()];
-        for (int i = 0; i < ans.length; i++) {
-            ans[i] = riderPoints.get(stageResult.get(i).getRiderId());
+            riderPoints[results.rowOf(rankedIds[j])] += pointsForThisStageType[j];
         }
 
-        return ans;
+        return inOrder(riderPoints, rankedIds);
     }
 
-   
-    private void sortBySegmentIndex(int segmentIndexToUse) {
-        stageResult.sort((a, b) -> {
-
-            LocalTime[] segmentTimesOfA = a.getSegmentTimes();
-            LocalTime[] segmentTimesOfB = b.getSegmentTimes();
+    private int[] computeMountainPoints(int[] finishOrderIds) {
 
-            LocalTime localTimeOfA = segmentTimesOfA[segmentIndexToUse];
-            LocalTime localTimeOfB = segmentTimesOfB[segmentIndexToUse];
-
-            // 2 AM == 2 * 3600 sec
-            int secondA = localTimeOfA.toSecondOfDay();
-            int secondB = localTimeOfB.toSecondOfDay();
-
-            if (secondA < secondB) return -1;
-            if (secondA > secondB) return +1;
-
-            return 0;
-        });
-    }
-
-    public int[] getRidersMountainPointsInStage() {
-
-        Map<SegmentType, int[]> points = new HashMap<>();
-        points.put(SegmentType.HC, new int[]{20, 15, 12, 10, 8, 6, 4, 2});
-        points.put(SegmentType.C1, new int[]{10, 8, 6, 4, 2, 1, 0, 0});
-        points.put(SegmentType.C2, new int[]{5, 3, 2, 1, 0, 0, 0, 0});
-        points.put(SegmentType.C3, new int[]{2, 1, 0, 0, 0, 0, 0, 0});
-        points.put(SegmentType.C4, new int[]{1, 0, 0, 0, 0, 0, 0, 0});
-
-        Map<Integer, Integer> riderPoints = new HashMap<>();
-        // init points to 0
-        for (RiderResult result : stageResult) {
-            riderPoints.put(result.getRiderId(), 0);
-        }
-
-        // for first 8 riders if any
-        int totalRidersToGivePoints = Math.min(8, stageResult.size());
+        int[] riderPoints = new int[results.size()];
 
         for (int i = 0; i < segmentList.size(); i++) {
             Segment segment = segmentList.get(i);
@@ -317,26 +701,84 @@ public class Stage implements Serializable {
                 continue;
             }
 
-            int[] pointsToGive = points.get(segmentType);
-
-            // for segment i sort the stageResult first based on segmentTimes.get(i).toSecondsOfDay()
-            sortBySegmentIndex(i);
-
-            for (int j = 0; j < totalRidersToGivePoints; j++) {
-                RiderResult riderResult = stageResult.get(j);
-                int riderId = riderResult.getRiderId();
-                riderPoints.put(riderId, riderPoints.get(riderId) + pointsToGive[j]);
+            // only the first 8 riders over the climb get points
+            int[] pointsToGive = POINTS_FOR_CLIMB.get(segmentType);
+            int[] first = TopK.smallest(segmentSeconds(i), pointsToGive.length);
+            for (int j = 0; j < first.length; j++) {
+                riderPoints[first[j]] += pointsToGive[j];
             }
         }
 
-        // now allocate points based on who finishes early
-        sortResultsByFinishTime();
+        // the points are listed in finish time order
+        return inOrder(riderPoints, finishOrderIds);
+    }
+
+    //returns the time every rider reached a segment in seconds, by row
+    private int[] segmentSeconds(int segmentIndex) {
+        return results.getCheckpointSecondsOfDay(segmentIndex);
+    }
 
-        int[] ans = new int[stageResult.size()];
+    //rearranges values kept by row into the order of the given rider IDs
+    private int[] inOrder(int[] valuesByPosition, int[] riderIds) {
+        int[] ans = new int[riderIds.length];
         for (int i = 0; i < ans.length; i++) {
-            ans[i] = riderPoints.get(stageResult.get(i).getRiderId());
+            ans[i] = valuesByPosition[results.rowOf(riderIds[i])];
         }
-
         return ans;
     }
+
+    //the queue is written into the store first, and the transient state is made again when read back
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        drainPendingResults();
+        out.defaultWriteObject();
+    }
+
+    //stages saved before the results were kept in a store hold them as a list of RiderResults, and have
+    //no segment positions or partial results, so those are made from what was saved. their segments are
+    //in the order they were added, while the times of every result are in the order riders reach them,
+    //so the segments are put in order of location and the times stay where they are
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = fields.get("id", 0);
+        stageName = (String) fields.get("stageName", null);
+        description = (String) fields.get("description", null);
+        length = fields.get("length", 0.0);
+        startTime = (LocalDateTime) fields.get("startTime", null);
+        stageType = (StageType) fields.get("stageType", null);
+        stageState = (String) fields.get("stageState", null);
+        segmentList = (List<Segment>) fields.get("segmentList", null);
+        segmentPositions = (Map<Integer, Integer>) fields.get("segmentPositions", null);
+        results = (StageResultStore) fields.get("results", null);
+        partialResults = (Map<Integer, LocalTime[]>) fields.get("partialResults", null);
+
+        if (segmentPositions == null) {
+            segmentList.sort(Comparator.comparingDouble(Segment::getLocation));
+            segmentPositions = new HashMap<>();
+            renumberSegmentsFrom(0);
+        }
+        if (results == null) {
+            results = new StageResultTable();
+            if (fields.getObjectStreamClass().getField("stageResult") != null) {
+                for (RiderResult result : (List<RiderResult>) fields.get("stageResult", null)) {
+                    results.add(result.getRiderId(), result.getCheckpoints());
+                }
+            }
+        }
+        if (partialResults == null) {
+            partialResults = new HashMap<>();
+        }
+        initialiseIngestion();
+    }
+
+    //a result waiting to be moved into the store
+    private static final class PendingResult {
+        private final int riderId;
+        private final LocalTime[] checkpoints;
+
+        PendingResult(int riderId, LocalTime[] checkpoints) {
+            this.riderId = riderId;
+            this.checkpoints = checkpoints;
+        }
+    }
 }
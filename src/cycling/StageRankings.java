@@ -0,0 +1,63 @@
+package cycling;
+
+/**
+ * the rankings of a stage as they were at one version of its results.
+ * a snapshot is never changed after it is made, so once a stage has published it
+ * any number of threads can read it at the same time without locking.
+ * the arrays are handed out as they are, so callers outside must copy them first
+ */
+final class StageRankings {
+
+    private final long version;
+    private final int[] rankedIds;
+    private final AdjustedElapsedTimes adjustedTimes;
+    private final int[] finishOrderIds;
+    private final int[] adjustedElapsedSeconds;
+    private final int[] riderPoints;
+    private final int[] riderMountainPoints;
+
+    StageRankings(long version, int[] rankedIds, AdjustedElapsedTimes adjustedTimes, int[] riderPoints,
+                  int[] riderMountainPoints) {
+        this.version = version;
+        this.rankedIds = rankedIds;
+        this.adjustedTimes = adjustedTimes;
+        this.finishOrderIds = adjustedTimes.getRiderIds();
+        this.adjustedElapsedSeconds = adjustedTimes.getAdjustedSeconds();
+        this.riderPoints = riderPoints;
+        this.riderMountainPoints = riderMountainPoints;
+    }
+
+    //the results version of the stage these rankings were worked out from
+    long getVersion() {
+        return version;
+    }
+
+    //rider IDs by elapsed time
+    int[] getRankedIds() {
+        return rankedIds;
+    }
+
+    AdjustedElapsedTimes getAdjustedTimes() {
+        return adjustedTimes;
+    }
+
+    //rider IDs by finish time
+    int[] getFinishOrderIds() {
+        return finishOrderIds;
+    }
+
+    //in the order of getFinishOrderIds
+    int[] getAdjustedElapsedSeconds() {
+        return adjustedElapsedSeconds;
+    }
+
+    //in the order of getRankedIds
+    int[] getRiderPoints() {
+        return riderPoints;
+    }
+
+    //in the order of getFinishOrderIds
+    int[] getRiderMountainPoints() {
+        return riderMountainPoints;
+    }
+}
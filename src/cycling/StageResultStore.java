@@ -0,0 +1,67 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
+import java.time.LocalTime;
+
+/**
+ * where a stage keeps its results. a row is one rider's result: the rider ID, the
+ * start as a second of the day and the seconds from the start to every checkpoint
+ * (each segment, then the finish), so the last checkpoint is the elapsed time.
+ * rows are numbered from 0 and removing a row moves the last row into its place
+ */
+interface StageResultStore extends Serializable {
+
+    int size();
+
+    boolean isEmpty();
+
+    boolean contains(int riderId);
+
+    //returns the row of a rider's result, or -1 if the rider has no result
+    int rowOf(int riderId);
+
+    //adds a row from the times at the start, at every segment and at the finish
+    void add(int riderId, LocalTime[] checkpoints);
+
+    //adds rows given column by column: the rider IDs, the start seconds of the day and, for every
+    //checkpoint, the seconds from the start
+    void addRows(int[] riderIds, int[] startSeconds, int[][] checkpointSeconds);
+
+    //removes a rider's row, returning false if the rider has no result
+    boolean remove(int riderId);
+
+    //makes room for at least the given number of rows
+    void ensureCapacity(int capacity);
+
+    int getRiderId(int row);
+
+    int getStartSecond(int row);
+
+    int getElapsedSeconds(int row);
+
+    //seconds of the day the rider of a row finished, going past a day if the stage crosses midnight
+    int getFinishSecond(int row);
+
+    //seconds of the day the rider of a row reached a checkpoint, going past a day if the stage crosses midnight
+    int getCheckpointSecondOfDay(int row, int checkpoint);
+
+    //returns a copy of the rider IDs, by row
+    int[] getRiderIds();
+
+    //returns a copy of the start seconds, by row
+    int[] getStartSeconds();
+
+    //returns the seconds of the day every rider reached a checkpoint, the finish being the last checkpoint
+    int[] getCheckpointSecondsOfDay(int checkpoint);
+
+    //returns a copy of the elapsed times, by row
+    int[] getElapsedSeconds();
+
+    //returns a RiderResult view of a row
+    RiderResult getResult(int stageId, int row);
+
+    //writes every row as fixed-width records, see OffHeapStageResultStore for the layout
+    void writeTo(WritableByteChannel channel) throws IOException;
+}
@@ -0,0 +1,220 @@
+package cycling;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/**
+ * holds the results of a stage column by column instead of one object per rider.
+ * there is a column of rider IDs, a column of start seconds and one column per
+ * checkpoint (each segment, then the finish) holding the seconds since the start,
+ * so the last checkpoint column is the elapsed time. a row is one rider's result.
+ * scanning a checkpoint for every rider reads one int array from start to end,
+ * and the rider to row lookup is a primitive open addressing table
+ */
+class StageResultTable implements StageResultStore {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+    private int[] riderIds = new int[INITIAL_CAPACITY];
+    private int[] startSeconds = new int[INITIAL_CAPACITY];
+    //checkpointColumns[checkpoint][row], null until the first row fixes the number of checkpoints
+    private int[][] checkpointColumns;
+    //rider ID to row, made again from the rider ID column when read back
+    private transient IntIntMap rows = IntIntMap.onHeap(INITIAL_CAPACITY);
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int riderId) {
+        return rows.containsKey(riderId);
+    }
+
+    //returns the row of a rider's result, or -1 if the rider has no result
+    public int rowOf(int riderId) {
+        return rows.get(riderId);
+    }
+
+    //adds a row from the times at the start, at every segment and at the finish
+    public void add(int riderId, LocalTime[] checkpoints) {
+        int checkpointCount = checkpoints.length - 1;
+        setCheckpointCount(checkpointCount);
+        ensureCapacity(size + 1);
+
+        int start = checkpoints[0].toSecondOfDay();
+        riderIds[size] = riderId;
+        startSeconds[size] = start;
+        for (int c = 0; c < checkpointCount; c++) {
+            checkpointColumns[c][size] = RiderResult.secondsSince(start, checkpoints[c + 1]);
+        }
+        rows.put(riderId, size);
+        size++;
+    }
+
+    //adds rows given column by column, copying every column in one go
+    public void addRows(int[] newRiderIds, int[] newStartSeconds, int[][] checkpointSeconds) {
+        int count = newRiderIds.length;
+        if (count == 0) {
+            return;
+        }
+        setCheckpointCount(checkpointSeconds.length);
+        ensureCapacity(size + count);
+
+        System.arraycopy(newRiderIds, 0, riderIds, size, count);
+        System.arraycopy(newStartSeconds, 0, startSeconds, size, count);
+        for (int c = 0; c < checkpointSeconds.length; c++) {
+            System.arraycopy(checkpointSeconds[c], 0, checkpointColumns[c], size, count);
+        }
+        for (int i = 0; i < count; i++) {
+            rows.put(newRiderIds[i], size + i);
+        }
+        size += count;
+    }
+
+    //the first row fixes the number of checkpoint columns, and every later row must have as many
+    private void setCheckpointCount(int checkpointCount) {
+        if (checkpointColumns == null || (size == 0 && checkpointColumns.length != checkpointCount)) {
+            checkpointColumns = new int[checkpointCount][riderIds.length];
+        } else if (checkpointColumns.length != checkpointCount) {
+            throw new IllegalArgumentException("expected " + (checkpointColumns.length + 1) + " checkpoints.");
+        }
+    }
+
+    //removes a rider's row by moving the last row into its place
+    public boolean remove(int riderId) {
+        int row = rows.remove(riderId);
+        if (row < 0) {
+            return false;
+        }
+        int last = size - 1;
+        if (row != last) {
+            riderIds[row] = riderIds[last];
+            startSeconds[row] = startSeconds[last];
+            for (int[] column : checkpointColumns) {
+                column[row] = column[last];
+            }
+            rows.put(riderIds[row], row);
+        }
+        size--;
+        return true;
+    }
+
+    //makes room for at least the given number of rows
+    public void ensureCapacity(int capacity) {
+        if (capacity <= riderIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, riderIds.length * 2);
+        riderIds = Arrays.copyOf(riderIds, newCapacity);
+        startSeconds = Arrays.copyOf(startSeconds, newCapacity);
+        if (checkpointColumns != null) {
+            for (int c = 0; c < checkpointColumns.length; c++) {
+                checkpointColumns[c] = Arrays.copyOf(checkpointColumns[c], newCapacity);
+            }
+        }
+    }
+
+    public int getRiderId(int row) {
+        return riderIds[row];
+    }
+
+    public int getStartSecond(int row) {
+        return startSeconds[row];
+    }
+
+    public int getElapsedSeconds(int row) {
+        return checkpointColumns[checkpointColumns.length - 1][row];
+    }
+
+    //seconds of the day the rider of a row finished, going past a day if the stage crosses midnight
+    public int getFinishSecond(int row) {
+        return startSeconds[row] + getElapsedSeconds(row);
+    }
+
+    public int getCheckpointSecondOfDay(int row, int checkpoint) {
+        return startSeconds[row] + checkpointColumns[checkpoint][row];
+    }
+
+    //returns a copy of the rider ID column
+    public int[] getRiderIds() {
+        return Arrays.copyOf(riderIds, size);
+    }
+
+    //returns a copy of the start column
+    public int[] getStartSeconds() {
+        return Arrays.copyOf(startSeconds, size);
+    }
+
+    //returns the seconds of the day every rider reached a checkpoint, the finish being the last checkpoint
+    public int[] getCheckpointSecondsOfDay(int checkpoint) {
+        if (size == 0) {
+            return new int[0];
+        }
+        int[] column = checkpointColumns[checkpoint];
+        int[] seconds = new int[size];
+        for (int row = 0; row < size; row++) {
+            seconds[row] = startSeconds[row] + column[row];
+        }
+        return seconds;
+    }
+
+    //returns a copy of the elapsed time column
+    public int[] getElapsedSeconds() {
+        if (checkpointColumns == null) {
+            return new int[0];
+        }
+        return Arrays.copyOf(checkpointColumns[checkpointColumns.length - 1], size);
+    }
+
+    //returns a RiderResult view of a row
+    public RiderResult getResult(int stageId, int row) {
+        int[] checkpointSeconds = new int[checkpointColumns.length];
+        for (int c = 0; c < checkpointSeconds.length; c++) {
+            checkpointSeconds[c] = checkpointColumns[c][row];
+        }
+        return new RiderResult(stageId, riderIds[row], startSeconds[row], checkpointSeconds);
+    }
+
+    //writes the rows in the record layout of OffHeapStageResultStore
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        int checkpointCount = checkpointColumns == null ? -1 : checkpointColumns.length;
+        OffHeapStageResultStore.writeFully(channel, OffHeapStageResultStore.header(checkpointCount, size));
+        if (size == 0) {
+            return;
+        }
+        int recordInts = 2 + checkpointCount;
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(size, 1024) * recordInts * Integer.BYTES);
+        for (int row = 0; row < size; row++) {
+            if (buffer.remaining() < recordInts * Integer.BYTES) {
+                buffer.flip();
+                OffHeapStageResultStore.writeFully(channel, buffer);
+                buffer.clear();
+            }
+            buffer.putInt(riderIds[row]).putInt(startSeconds[row]);
+            for (int[] column : checkpointColumns) {
+                buffer.putInt(column[row]);
+            }
+        }
+        buffer.flip();
+        OffHeapStageResultStore.writeFully(channel, buffer);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        rows = IntIntMap.onHeap(size);
+        for (int row = 0; row < size; row++) {
+            rows.put(riderIds[row], row);
+        }
+    }
+}
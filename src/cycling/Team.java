@@ -3,15 +3,30 @@ package cycling;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class Team implements Serializable {
 	/**
 	 * this class is used for the creation of teams
 	 */
+    private static final long serialVersionUID = 6060165609392773203L;
 	
 	//variables to be used in this class 
-    public static int availableId = 1;
+    private static final AtomicInteger availableId = new AtomicInteger(1);
+
+    private static int nextId() {
+        return availableId.getAndIncrement();
+    }
+
+    static int getAvailableId() {
+        return availableId.get();
+    }
+
+    //used when the portal is erased or loaded
+    static void setAvailableId(int id) {
+        availableId.set(id);
+    }
 
     private int id;
     private String name;
@@ -21,8 +36,11 @@ public class Team implements Serializable {
 
     //creates a team ID 
     public Team(String name, String description) {
-        this.id = availableId;
-        availableId += 1;
+        this(nextId(), name, description);
+    }
+
+    Team(int id, String name, String description) {
+        this.id = id;
 
         this.name = name;
         this.description = description;
@@ -37,6 +55,10 @@ public class Team implements Serializable {
         return name;
     }
 
+    public String getDescription() {
+        return description;
+    }
+
     public List<Rider> getRiderList() {
         return riderList;
     }
@@ -0,0 +1,123 @@
+package cycling;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the team classification of a stage or a race.
+ * a team's time in a stage is the sum of the adjusted elapsed times of its best three
+ * riders in the stage, and a team with fewer than three riders in it isn't classified.
+ * a team's time in a race is the sum of its stage times, and only teams classified in
+ * every stage are classified in the race. teams with the same time are ordered by ID
+ */
+class TeamClassification {
+
+    //how many riders of a team count towards its time
+    static final int COUNTED_RIDERS = 3;
+
+    private final int[] teamIds;
+    private final long[] seconds;
+
+    private TeamClassification(int[] teamIds, long[] seconds) {
+        this.teamIds = teamIds;
+        this.seconds = seconds;
+    }
+
+    //a classification with no team in it
+    static TeamClassification empty() {
+        return new TeamClassification(new int[0], new long[0]);
+    }
+
+    //works out a stage's team classification in one pass over its rankings
+    static TeamClassification ofStage(StageRankings rankings, IdIndex<Team> riderTeams) {
+        int[] riderIds = rankings.getFinishOrderIds();
+        int[] adjustedSeconds = rankings.getAdjustedElapsedSeconds();
+        // the best times of each team so far, least first, and how many there are in the last slot
+        Map<Integer, int[]> best = new HashMap<>();
+        for (int i = 0; i < riderIds.length; i++) {
+            Team team = riderTeams.get(riderIds[i]);
+            if (team == null) {
+                // a rider whose team was removed still has results, but no team to count them for
+                continue;
+            }
+            int[] times = best.computeIfAbsent(team.getId(), id -> new int[COUNTED_RIDERS + 1]);
+            insert(times, adjustedSeconds[i]);
+        }
+
+        Map<Integer, Long> totals = new HashMap<>();
+        for (Map.Entry<Integer, int[]> entry : best.entrySet()) {
+            int[] times = entry.getValue();
+            if (times[COUNTED_RIDERS] == COUNTED_RIDERS) {
+                long total = 0;
+                for (int j = 0; j < COUNTED_RIDERS; j++) {
+                    total += times[j];
+                }
+                totals.put(entry.getKey(), total);
+            }
+        }
+        return sorted(totals);
+    }
+
+    //adds up the team classifications of every stage of a race
+    static TeamClassification ofRace(List<TeamClassification> stages) {
+        Map<Integer, Long> totals = new HashMap<>();
+        Map<Integer, Integer> stagesClassified = new HashMap<>();
+        for (TeamClassification stage : stages) {
+            for (int i = 0; i < stage.teamIds.length; i++) {
+                totals.merge(stage.teamIds[i], stage.seconds[i], Long::sum);
+                stagesClassified.merge(stage.teamIds[i], 1, Integer::sum);
+            }
+        }
+        totals.keySet().removeIf(teamId -> stagesClassified.get(teamId) != stages.size());
+        return sorted(totals);
+    }
+
+    //team IDs by time, least first
+    int[] getTeamIds() {
+        return teamIds.clone();
+    }
+
+    //team times, matching getTeamIds
+    Duration[] getTimes() {
+        Duration[] times = new Duration[seconds.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = Duration.ofSeconds(seconds[i]);
+        }
+        return times;
+    }
+
+    //keeps the best COUNTED_RIDERS times, least first, with how many there are in the last slot
+    private static void insert(int[] times, int time) {
+        int count = times[COUNTED_RIDERS];
+        if (count == COUNTED_RIDERS && time >= times[COUNTED_RIDERS - 1]) {
+            return;
+        }
+        int i = Math.min(count, COUNTED_RIDERS - 1);
+        while (i > 0 && times[i - 1] > time) {
+            times[i] = times[i - 1];
+            i--;
+        }
+        times[i] = time;
+        times[COUNTED_RIDERS] = Math.min(count + 1, COUNTED_RIDERS);
+    }
+
+    //orders teams by time then ID, packing both in a long so a plain sort does it
+    private static TeamClassification sorted(Map<Integer, Long> totals) {
+        long[] keys = new long[totals.size()];
+        int k = 0;
+        for (Map.Entry<Integer, Long> entry : totals.entrySet()) {
+            keys[k++] = (entry.getValue() << 32) | (entry.getKey() & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys);
+        int[] teamIds = new int[keys.length];
+        long[] seconds = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            teamIds[i] = (int) keys[i];
+            seconds[i] = keys[i] >>> 32;
+        }
+        return new TeamClassification(teamIds, seconds);
+    }
+}
@@ -0,0 +1,77 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * picks the k smallest values out of an array without sorting the whole array.
+ * a bounded max-heap of k entries is kept while scanning once, so the cost is
+ * O(n log k) and only primitive values are compared
+ */
+final class TopK {
+
+    private TopK() {
+    }
+
+    //returns the positions of the k smallest keys, smallest first; equal keys go to the lower position
+    static int[] smallest(int[] keys, int k) {
+        int size = Math.min(k, keys.length);
+        if (size <= 0) {
+            return new int[0];
+        }
+
+        // key and position packed together, so comparing the longs also breaks ties by position
+        long[] heap = new long[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long entry = ((long) keys[i] << 32) | i;
+            if (count < size) {
+                heap[count] = entry;
+                siftUp(heap, count);
+                count++;
+            } else if (entry < heap[0]) {
+                heap[0] = entry;
+                siftDown(heap, size);
+            }
+        }
+
+        Arrays.sort(heap);
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = (int) heap[i];
+        }
+        return positions;
+    }
+
+    private static void siftUp(long[] heap, int index) {
+        long entry = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] >= entry) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = entry;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int index = 0;
+        long entry = heap[0];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (heap[child] <= entry) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = entry;
+    }
+}